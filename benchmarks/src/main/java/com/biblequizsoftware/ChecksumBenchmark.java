@@ -0,0 +1,43 @@
+package com.biblequizsoftware;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// the two checksum variants, over an OTA packet's worth of data and a larger block
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"100", "4096"})
+    public int size;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = new byte[size + 16];
+        new Random(1).nextBytes(data);
+    }
+
+    @Benchmark
+    public short signed() {
+        return BuzzerProtocol.signedChecksum(data, 8, size);
+    }
+
+    @Benchmark
+    public short unsigned() {
+        return BuzzerProtocol.checksum(data, 8, size);
+    }
+
+    // what OTA used to do: copy the packet out, then sum the copy
+    @Benchmark
+    public short legacyCopyThenSum() {
+        return LegacyCodec.checksum(Arrays.copyOfRange(data, 8, 8 + size));
+    }
+}
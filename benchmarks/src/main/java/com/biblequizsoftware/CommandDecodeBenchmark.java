@@ -0,0 +1,46 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// CMD payload to BUZZER_CMD, as done by processPacket for every button press
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDecodeBenchmark {
+    @Param({"R1", "Y3", "QM", "CLEAR", "BOGUS"})
+    public String command;
+
+    private byte[] payload;
+    private byte[] packet;
+    private BuzzerEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        payload = command.getBytes(StandardCharsets.US_ASCII);
+        packet = BuzzerProtocol.frame(BuzzerProtocol.BT_PACKET_CMD, payload);
+        engine = new BuzzerEngine(null);
+    }
+
+    @Benchmark
+    public BUZZER_CMD decode() {
+        return CommandDecoder.decode(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public BUZZER_CMD legacyStringSwitch() {
+        return LegacyCodec.decode(payload);
+    }
+
+    // the whole receive path for one untimestamped command packet
+    @Benchmark
+    public void engineProcessPacket() {
+        engine.receive(packet, 0, packet.length);
+    }
+}
@@ -0,0 +1,110 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.biblequizsoftware.BuzzerProtocol.BT_PACKET_OTA_MSG;
+import static com.biblequizsoftware.BuzzerProtocol.HEADER_SIZE;
+
+// the original allocating versions of the codec paths, kept here as a baseline to measure against.
+//
+// the framer keeps the same copy-per-packet and concatenate-per-fragment behaviour as the old
+// recursive processIncomingData, but without its bugs, so both sides parse the same packets.
+final class LegacyCodec {
+    interface PacketHandler {
+        void onPacket(short type, byte[] packetData);
+    }
+
+    static final class Framer {
+        private final PacketHandler handler;
+        private byte[] remainingData = new byte[0];
+
+        Framer(PacketHandler handler) {
+            this.handler = handler;
+        }
+
+        void processIncomingData(byte[] data) {
+            if (remainingData.length > 0) {
+                // combine the current data with the new data
+                final byte[] allData = new byte[remainingData.length + data.length];
+                System.arraycopy(remainingData, 0, allData, 0, remainingData.length);
+                System.arraycopy(data, 0, allData, remainingData.length, data.length);
+                remainingData = new byte[0];
+                data = allData;
+            }
+            if (data.length < HEADER_SIZE) {
+                remainingData = data;
+                return;
+            }
+            final short type = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getShort(0);
+            final int packetLen = (ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getShort(2) & 0xffff) + HEADER_SIZE;
+            if (packetLen > data.length) {
+                remainingData = data;
+                return;
+            }
+            handler.onPacket(type, packetLen == HEADER_SIZE ? new byte[0] : Arrays.copyOfRange(data, HEADER_SIZE, packetLen));
+            if (data.length > packetLen) {
+                // more data to process
+                processIncomingData(Arrays.copyOfRange(data, packetLen, data.length));
+            }
+        }
+    }
+
+    private LegacyCodec() {
+    }
+
+    static BUZZER_CMD decode(byte[] packetData) {
+        final String cmd = new String(packetData, StandardCharsets.US_ASCII);
+        switch (cmd) {
+            case "R1":
+                return BUZZER_CMD.R1;
+            case "R2":
+                return BUZZER_CMD.R2;
+            case "R3":
+                return BUZZER_CMD.R3;
+            case "Y1":
+                return BUZZER_CMD.Y1;
+            case "Y2":
+                return BUZZER_CMD.Y2;
+            case "Y3":
+                return BUZZER_CMD.Y3;
+            case "QM":
+                return BUZZER_CMD.QM;
+            case "CLEAR":
+                return BUZZER_CMD.CLEAR;
+            default:
+                return null;
+        }
+    }
+
+    static short checksum(byte[] data) {
+        int csum = 0;
+        for (byte b : data) {
+            csum += (int)b & 0xff;
+        }
+        return (short)csum;
+    }
+
+    static byte[] packet(byte[] data, int packetIndex, int packetSize) {
+        final int offset = packetIndex * packetSize;
+        final int len = Math.min(packetSize, data.length - offset);
+        final byte[] packetData = Arrays.copyOfRange(data, offset, offset + len);
+
+        final byte[] payload = new byte[len + 4];
+        final ByteBuffer bb = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putShort(0, (short) packetIndex);
+        bb.put(2, packetData);
+        bb.putShort(packetData.length + 2, checksum(packetData));
+
+        final byte[] frame = new byte[HEADER_SIZE + payload.length];
+        final ByteBuffer fb = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        fb.putShort(0, BT_PACKET_OTA_MSG);
+        fb.putShort(2, (short) payload.length);
+        fb.put(HEADER_SIZE, payload);
+        return frame;
+    }
+}
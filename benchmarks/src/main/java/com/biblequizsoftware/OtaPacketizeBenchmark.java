@@ -0,0 +1,92 @@
+package com.biblequizsoftware;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// building every OTA_MSG frame of a firmware image, the work sendPacket does per packet.
+// the checksums are precomputed when the image is loaded, which is part of what's being compared.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtaPacketizeBenchmark {
+    @Param({"262144", "1048576"})
+    public int imageSize;
+
+    private byte[] data;
+    private FirmwareImage image;
+    private final byte[] frame = new byte[BuzzerProtocol.HEADER_SIZE + OtaTransfer.PACKET_SIZE + 4];
+    // the alternative to frame: a direct mapping of the image and a reused direct frame, plus the
+    // array jSerialComm's writeBytes needs each one copied into
+    private ByteBuffer directData;
+    private final ByteBuffer directFrame = ByteBuffer.allocateDirect(frame.length).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] writeArray = new byte[frame.length];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = new byte[imageSize];
+        new Random(3).nextBytes(data);
+        image = FirmwareImage.wrap(data, OtaTransfer.PACKET_SIZE);
+        directData = ByteBuffer.allocateDirect(imageSize);
+        directData.put(0, data);
+    }
+
+    @Benchmark
+    public void encodePacket(Blackhole blackhole) {
+        final int count = image.getPacketCount();
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(OtaTransfer.encodePacket(image, i, frame));
+        }
+    }
+
+    // each frame as it's handed to the port: built in the reused heap frame and written as is
+    @Benchmark
+    public void heapFrameWrite(Blackhole blackhole) {
+        final int count = image.getPacketCount();
+        for (int i = 0; i < count; i++) {
+            final int length = OtaTransfer.encodePacket(image, i, frame);
+            blackhole.consume(frame);
+            blackhole.consume(length);
+        }
+    }
+
+    // the same, built in a reused direct buffer, which has to be copied out for writeBytes
+    @Benchmark
+    public void directFrameWrite(Blackhole blackhole) {
+        final int count = image.getPacketCount();
+        for (int i = 0; i < count; i++) {
+            final int offset = image.packetOffset(i);
+            final int len = image.packetLength(i);
+            directFrame.putShort(0, BuzzerProtocol.BT_PACKET_OTA_MSG);
+            directFrame.putShort(2, (short) (len + 4));
+            directFrame.putShort(BuzzerProtocol.HEADER_SIZE, (short) i);
+            directFrame.put(BuzzerProtocol.HEADER_SIZE + 2, directData, offset, len);
+            directFrame.putShort(BuzzerProtocol.HEADER_SIZE + 2 + len, image.packetChecksum(i));
+            final int length = BuzzerProtocol.HEADER_SIZE + len + 4;
+            directFrame.get(0, writeArray, 0, length);
+            blackhole.consume(writeArray);
+            blackhole.consume(length);
+        }
+    }
+
+    @Benchmark
+    public void legacyAllocating(Blackhole blackhole) {
+        final int count = (data.length + OtaTransfer.PACKET_SIZE - 1) / OtaTransfer.PACKET_SIZE;
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(LegacyCodec.packet(data, i, OtaTransfer.PACKET_SIZE));
+        }
+    }
+
+    // the one-off cost of slicing an image and precomputing its checksums
+    @Benchmark
+    public FirmwareImage loadImage() {
+        return FirmwareImage.wrap(data, OtaTransfer.PACKET_SIZE);
+    }
+}
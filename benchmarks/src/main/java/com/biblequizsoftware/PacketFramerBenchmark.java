@@ -0,0 +1,77 @@
+package com.biblequizsoftware;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// incoming byte stream to packets, under the read patterns a serial port actually produces.
+// each operation parses the same 1000 packets, so scores are directly comparable across params.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketFramerBenchmark {
+    public enum Fragmentation {
+        // one read per packet
+        WHOLE,
+        // everything arrives a byte at a time
+        SINGLE_BYTE,
+        // reads of 1..64 bytes, cut anywhere
+        RANDOM,
+        // every packet is cut inside its header
+        HEADER_SPLIT,
+        // one large read holding everything
+        COALESCED
+    }
+
+    @Param({"WHOLE", "SINGLE_BYTE", "RANDOM", "HEADER_SPLIT", "COALESCED"})
+    public Fragmentation fragmentation;
+
+    private byte[][] reads;
+    private PacketFramer framer;
+    private LegacyCodec.Framer legacy;
+    private BuzzerEngine engine;
+
+    // everything parsed is folded in here so none of it can be optimised away
+    private long sink = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        reads = Streams.reads(Streams.packets(1000, 42), fragmentation, 7);
+        framer = new PacketFramer((type, data, offset, length) -> {
+            sink += type + length + (length > 0 ? data[offset + length - 1] : 0);
+        });
+        legacy = new LegacyCodec.Framer((type, packetData) -> {
+            sink += type + packetData.length + (packetData.length > 0 ? packetData[packetData.length - 1] : 0);
+        });
+        // not connected, so replies are dropped and only the receive side is measured
+        engine = new BuzzerEngine((cmd, timestamp) -> sink += cmd.ordinal() + timestamp);
+    }
+
+    @Benchmark
+    public long framer() {
+        for (byte[] read : reads) {
+            framer.feed(read, 0, read.length);
+        }
+        return sink;
+    }
+
+    @Benchmark
+    public long legacyRecursive() {
+        for (byte[] read : reads) {
+            legacy.processIncomingData(read);
+        }
+        return sink;
+    }
+
+    // framing plus processPacket: timestamp handling, clock sync, decoding and the callback
+    @Benchmark
+    public long engineReceive() {
+        for (byte[] read : reads) {
+            engine.receive(read, 0, read.length);
+        }
+        return sink;
+    }
+}
@@ -0,0 +1,94 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+
+// canned device traffic for the benchmarks, built once per trial
+final class Streams {
+    private Streams() {
+    }
+
+    // a mix of what a quiz produces: mostly timestamped presses, with pings, config replies and OTA requests
+    static List<byte[]> packets(int count, long seed) {
+        final Random random = new Random(seed);
+        final BUZZER_CMD[] commands = BUZZER_CMD.values();
+        final List<byte[]> packets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int kind = random.nextInt(10);
+            if (kind < 6) {
+                packets.add(command(commands[random.nextInt(commands.length)], random.nextInt(Integer.MAX_VALUE)));
+            } else if (kind < 8) {
+                packets.add(frame(BT_PACKET_PING, new byte[0]));
+            } else if (kind < 9) {
+                packets.add(frame(BT_PACKET_CONFIG_READ, "volume=5".getBytes(StandardCharsets.US_ASCII)));
+            } else {
+                final byte[] request = new byte[16];
+                for (int j = 0; j < request.length; j += 2) {
+                    putShortLE(request, j, random.nextInt(1000));
+                }
+                packets.add(frame(BT_PACKET_OTA_REQ, request));
+            }
+        }
+        return packets;
+    }
+
+    static byte[] command(BUZZER_CMD cmd, int eventTime) {
+        final byte[] name = CommandDecoder.encode(cmd);
+        final byte[] payload = new byte[name.length + 4];
+        System.arraycopy(name, 0, payload, 0, name.length);
+        putIntLE(payload, name.length, eventTime);
+        return frame((short) (BT_PACKET_CMD | BT_TIMESTAMP), payload);
+    }
+
+    // splits the packets into the reads the port would hand over
+    static byte[][] reads(List<byte[]> packets, PacketFramerBenchmark.Fragmentation fragmentation, long seed) {
+        final Random random = new Random(seed);
+        final List<byte[]> reads = new ArrayList<>();
+        switch (fragmentation) {
+            case WHOLE -> reads.addAll(packets);
+            case HEADER_SPLIT -> {
+                for (byte[] packet : packets) {
+                    final int cut = 1 + random.nextInt(HEADER_SIZE - 1);
+                    reads.add(slice(packet, 0, cut));
+                    reads.add(slice(packet, cut, packet.length));
+                }
+            }
+            default -> {
+                final byte[] all = concat(packets);
+                if (fragmentation == PacketFramerBenchmark.Fragmentation.COALESCED) {
+                    reads.add(all);
+                    break;
+                }
+                int pos = 0;
+                while (pos < all.length) {
+                    final int len = fragmentation == PacketFramerBenchmark.Fragmentation.SINGLE_BYTE ? 1 : 1 + random.nextInt(64);
+                    final int end = Math.min(all.length, pos + len);
+                    reads.add(slice(all, pos, end));
+                    pos = end;
+                }
+            }
+        }
+        return reads.toArray(new byte[0][]);
+    }
+
+    static byte[] concat(List<byte[]> packets) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] packet : packets) {
+            out.writeBytes(packet);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        final byte[] slice = new byte[to - from];
+        System.arraycopy(data, from, slice, 0, slice.length);
+        return slice;
+    }
+}
@@ -1,8 +1,19 @@
+import com.biblequizsoftware.BuzzerEngine;
 import com.biblequizsoftware.BuzzerState;
+import com.biblequizsoftware.DeviceLog;
+import com.biblequizsoftware.EventBridge;
+import com.biblequizsoftware.EventDispatcher;
+import com.biblequizsoftware.FleetUpdate;
+import com.biblequizsoftware.VirtualBuzzerDevice;
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 public class Main {
-    public static void main(String[] args) {
-        BuzzerState bqsBuzzer = new BuzzerState((cmd, timeStamp) -> {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final BuzzerEngine.BuzzerCallback printer = (cmd, timeStamp) -> {
             // example of actions to handle
             switch (cmd) {
                 case CLEAR -> {
@@ -33,7 +44,93 @@ public class Main {
                     System.out.println(timeStamp + ": " + cmd);
                 }
             }
-        });
+        };
+        // printing is slow, keep it off the serial listener thread
+        final EventDispatcher callback = new EventDispatcher(printer, 1024, EventDispatcher.OverflowPolicy.DROP_OLDEST);
+
+        if (args.length > 0 && args[0].equals("--headless")) {
+            // no Swing at all, just connect to the first buzzer found and print its events
+            final SerialPort[] ports = BuzzerEngine.findPorts();
+            if (ports.length == 0) {
+                System.out.println("No buzzer found");
+                return;
+            }
+            final BuzzerEngine engine = new BuzzerEngine(callback);
+            final DeviceLog log = new DeviceLog(DeviceLog.DEFAULT_DIRECTORY);
+            engine.setDeviceLog(log);
+            if (!engine.connect(ports[0])) {
+                System.out.println("Unable to connect to " + ports[0].getSystemPortName());
+                return;
+            }
+            System.out.println("Connected to " + ports[0].getSystemPortName());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                engine.disconnect();
+                log.close();
+            }));
+            Thread.currentThread().join();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--virtual")) {
+            // a simulated buzzer box pressing random buttons, optionally at the given events per second
+            final VirtualBuzzerDevice device = new VirtualBuzzerDevice();
+            device.setEventRate(args.length > 1 ? Double.parseDouble(args[1]) : 1);
+            final BuzzerEngine engine = new BuzzerEngine(callback);
+            engine.connect(device);
+            System.out.println("Connected to " + device.getName());
+            Runtime.getRuntime().addShutdownHook(new Thread(engine::disconnect));
+            Thread.currentThread().join();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--bridge")) {
+            // serve the first buzzer's events to other programs, TCP on the port and WebSocket on the next
+            final int port = args.length > 1 ? Integer.parseInt(args[1]) : 7411;
+            final SerialPort[] ports = BuzzerEngine.findPorts();
+            if (ports.length == 0) {
+                System.out.println("No buzzer found");
+                return;
+            }
+            final BuzzerEngine engine = new BuzzerEngine(null);
+            final EventBridge bridge = new EventBridge(engine::clearBuzzer);
+            final String device = ports[0].getSystemPortName();
+            engine.addListener(new BuzzerEngine.Listener() {
+                @Override
+                public void buzzerEvent(BuzzerEngine.BUZZER_CMD cmd, int eventTime, long hostNanos) {
+                    bridge.publish(device, cmd, eventTime, hostNanos);
+                }
+            });
+            if (!engine.connect(ports[0])) {
+                System.out.println("Unable to connect to " + device);
+                return;
+            }
+            System.out.println("Serving " + device + " on TCP port " + bridge.listen(port) + " and WebSocket port " + bridge.listenWebSocket(port + 1));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                engine.disconnect();
+                bridge.close();
+            }));
+            Thread.currentThread().join();
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--update")) {
+            // flash every buzzer found (or just the named ports) with the given firmware
+            final SerialPort[] ports = args.length > 2
+                ? Arrays.stream(args, 2, args.length).map(SerialPort::getCommPort).toArray(SerialPort[]::new)
+                : BuzzerEngine.findPorts();
+            final FleetUpdate update = new FleetUpdate(Path.of(args[1]));
+            update.addListener(new FleetUpdate.Listener() {
+                @Override
+                public void finished(FleetUpdate.DeviceResult result) {
+                    System.out.println(result.device() + ": " + result.outcome() + " (" + result.bytesPerSecond() / 1024 + " KB/s)");
+                }
+            });
+            System.out.println("Updating " + ports.length + " buzzers");
+            System.out.println(update.run(ports));
+            return;
+        }
+
+        BuzzerState bqsBuzzer = new BuzzerState(callback);
         // only enabling exit on close for the sake of this demo application
         bqsBuzzer.showDialog(true);
     }
@@ -0,0 +1,190 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import com.biblequizsoftware.BuzzerEngine.BuzzerCallback;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// decides who buzzed first in a round.
+//
+// contenders are ranked by when the device says they pressed, not by when the packet turned
+// up, so a press that arrives late but happened earlier still moves ahead. each seat can only
+// buzz once per round (later presses are ignored until CLEAR starts the next round) and anyone
+// within the tie window of the leader is reported as tied for first. there are only six seats,
+// so placing a press is a bounded insertion and the work per event is constant.
+public class BuzzArbiter implements BuzzerCallback {
+    @FunctionalInterface
+    public interface Listener {
+        // called whenever a round starts or its ranking changes
+        void rankingChanged(Ranking ranking);
+    }
+
+    public static final class Ranking {
+        private final int round;
+        private final List<BUZZER_CMD> order;
+        private final long[] times;
+        private final int tiedForFirst;
+
+        private Ranking(int round, BUZZER_CMD[] order, long[] times, int count, int tiedForFirst) {
+            this.round = round;
+            this.order = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(order, count)));
+            this.times = Arrays.copyOf(times, count);
+            this.tiedForFirst = tiedForFirst;
+        }
+
+        public int getRound() {
+            return round;
+        }
+
+        // seats in the order they buzzed
+        public List<BUZZER_CMD> getOrder() {
+            return order;
+        }
+
+        public BUZZER_CMD getWinner() {
+            return order.isEmpty() ? null : order.get(0);
+        }
+
+        public long getTime(int rank) {
+            return times[rank];
+        }
+
+        // how many seats are within the tie window of the leader, 1 means a clear winner
+        public int getTiedForFirst() {
+            return tiedForFirst;
+        }
+
+        public boolean isTied() {
+            return tiedForFirst > 1;
+        }
+
+        @Override
+        public String toString() {
+            return "round " + round + ": " + order + (isTied() ? " (" + tiedForFirst + " tied)" : "");
+        }
+    }
+
+    private static final int SEATS = 6;
+
+    private final long tieWindow;
+    private final Listener listener;
+    private final ClockSync clock;
+
+    private final boolean[] locked = new boolean[BUZZER_CMD.values().length];
+    private final BUZZER_CMD[] order = new BUZZER_CMD[SEATS];
+    private final long[] times = new long[SEATS];
+    // false for presses placed by when they arrived, which rank behind every timestamped one
+    private final boolean[] timed = new boolean[SEATS];
+    private int count = 0;
+    private int round = 0;
+    // this round is ranked on the host clock through the ClockSync
+    private boolean hostClock;
+
+    // tieWindow is in the same units as the times passed in, milliseconds for device timestamps
+    public BuzzArbiter(long tieWindow, Listener listener) {
+        this(tieWindow, listener, null);
+    }
+
+    // with the engine's ClockSync (BuzzerEngine.getClockSync) every round that starts once it has
+    // synced is ranked on the host clock, presses without a timestamp by when they arrived
+    public BuzzArbiter(long tieWindow, Listener listener, ClockSync clock) {
+        this.tieWindow = tieWindow;
+        this.listener = listener;
+        this.clock = clock;
+        this.hostClock = clock != null && clock.isSynced();
+    }
+
+    // device timestamps in milliseconds. a press without one can't be compared with them (the
+    // host clock counts from somewhere else entirely), so unless there's a synced ClockSync to
+    // put both on the host clock it's ranked after every timestamped press, by arrival.
+    //
+    // which clock a round is ranked on is decided when it starts, so a ClockSync that syncs part
+    // way through doesn't leave earlier presses in device time and later ones in host time
+    @Override
+    public void action(BUZZER_CMD cmd, int timestamp) {
+        final long arrived = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        synchronized (this) {
+            if (hostClock) {
+                // if the clock has lost sync since (a reconnect), arrival is on the host clock too
+                final boolean mapped = timestamp != 0 && clock.isSynced();
+                submit(cmd, mapped ? TimeUnit.NANOSECONDS.toMillis(clock.toHostNanos(timestamp)) : arrived, true);
+            } else if (timestamp != 0) {
+                submit(cmd, Integer.toUnsignedLong(timestamp), true);
+            } else {
+                submit(cmd, arrived, false);
+            }
+        }
+    }
+
+    // returns true if the ranking changed
+    public boolean submit(BUZZER_CMD cmd, long time) {
+        return submit(cmd, time, true);
+    }
+
+    private synchronized boolean submit(BUZZER_CMD cmd, long time, boolean isTimed) {
+        switch (cmd) {
+            case CLEAR -> {
+                reset();
+                return true;
+            }
+            case QM -> {
+                // the quiz master's button isn't a contender
+                return false;
+            }
+            default -> {
+                if (locked[cmd.ordinal()]) {
+                    return false;
+                }
+                locked[cmd.ordinal()] = true;
+
+                // insert by time, untimed presses after timed ones, ties on time keep arrival order
+                int pos = count;
+                while (pos > 0 && (timed[pos - 1] == isTimed ? times[pos - 1] > time : isTimed)) {
+                    order[pos] = order[pos - 1];
+                    times[pos] = times[pos - 1];
+                    timed[pos] = timed[pos - 1];
+                    pos--;
+                }
+                order[pos] = cmd;
+                times[pos] = time;
+                timed[pos] = isTimed;
+                count++;
+                notifyListener();
+                return true;
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(locked, false);
+        count = 0;
+        round++;
+        hostClock = clock != null && clock.isSynced();
+        notifyListener();
+    }
+
+    public synchronized Ranking getRanking() {
+        return new Ranking(round, order, times, count, tiedForFirst());
+    }
+
+    public synchronized boolean isLocked(BUZZER_CMD seat) {
+        return locked[seat.ordinal()];
+    }
+
+    private int tiedForFirst() {
+        int tied = 0;
+        while (tied < count && timed[tied] == timed[0] && times[tied] - times[0] <= tieWindow) {
+            tied++;
+        }
+        return tied;
+    }
+
+    private void notifyListener() {
+        if (listener != null) {
+            listener.rankingChanged(getRanking());
+        }
+    }
+}
@@ -0,0 +1,1014 @@
+package com.biblequizsoftware;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+
+// protocol, connection and OTA handling for a buzzer box, with no dependency on AWT/Swing.
+//
+// BuzzerState is the Swing view over this; servers and command line tools can use it directly.
+// the box is reached through a SerialTransport, normally a jSerialComm port. nothing here blocks
+// on the port: writes are queued for a writer thread that puts pings and CLEAR ahead of config
+// and config ahead of firmware data. timeouts (config reads, pings, OTA retries) are deadlines on
+// one timer wheel shared by every engine. callbacks arrive on the transport's reader, the OTA
+// thread or the timer thread, never the EDT.
+//
+// a device that stops pinging is taken to have dropped off the link. the transport is closed
+// and reopened in the background with backoff until it answers, the engine staying connected
+// throughout so nothing above it has to reconnect, and listeners hear linkDown and linkUp.
+public class BuzzerEngine {
+    @FunctionalInterface
+    public interface BuzzerCallback {
+        void action(BUZZER_CMD cmd, int timestamp);
+    }
+
+    public enum BUZZER_CMD {
+        R1,
+        R2,
+        R3,
+        Y1,
+        Y2,
+        Y3,
+        QM,
+        CLEAR
+    }
+
+    public interface Listener {
+        default void connected(SerialTransport transport) {
+        }
+
+        default void disconnected(SerialTransport transport) {
+        }
+
+        // called with the cached config straight after connecting (if the device has been seen
+        // before), then again once every config item has been read back or has timed out
+        default void configRead(Map<String, String> config) {
+        }
+
+        default void otaProgress(int packetsAcked, int packetCount, long bytesPerSecond) {
+        }
+
+        default void otaComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+        }
+
+        default void spiffsProgress(int packetsAcked, int packetCount, long bytesPerSecond) {
+        }
+
+        default void spiffsComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+        }
+
+        // the image file couldn't be read part way through, the upload has stopped
+        default void spiffsFailed(Exception ex) {
+        }
+
+        // every button event, with the host System.nanoTime() it happened at. for timestamped
+        // packets that comes from the clock sync, otherwise it's when the packet was parsed
+        default void buzzerEvent(BUZZER_CMD cmd, int eventTime, long hostNanos) {
+        }
+
+        // the device hasn't pinged for the ping timeout. called once per silence, the next
+        // ping starts the clock again
+        default void pingTimeout(long silentNanos) {
+        }
+
+        // the link was dropped after a ping timeout and is being reopened in the background
+        default void linkDown(SerialTransport transport) {
+        }
+
+        // the link is back after being down for downNanos, config is being read again
+        default void linkUp(SerialTransport transport, long downNanos) {
+        }
+    }
+
+    public static final String CONFIG_VERSION = "version";
+    public static final String CONFIG_VOLUME = "volume";
+    public static final String CONFIG_RGB_TIMER = "rgb_timer";
+    public static final String CONFIG_QM_TIMER = "qm_timer";
+    // comma separated protocol extensions the firmware supports, empty (or unanswered) on older firmware
+    public static final String CONFIG_CAPABILITIES = "caps";
+
+    // the device asks for SPIFFS packets with SPIFFS_REQ, without it they're streamed unpaced
+    public static final String CAPABILITY_SPIFFS_REQ = "spiffs_req";
+
+    private static final String[] configItems = new String[] {
+        CONFIG_VERSION,
+        CONFIG_VOLUME,
+        CONFIG_RGB_TIMER,
+        CONFIG_QM_TIMER,
+        CONFIG_CAPABILITIES,
+    };
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final long CONFIG_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int CONFIG_ATTEMPTS = 3;
+    private static final long DEFAULT_PING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long DEFAULT_RECONNECT_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long DEFAULT_RECONNECT_MAX_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final TimerWheel timer = TimerWheel.shared();
+
+    // reopening a port can block for seconds, so it's done here rather than on the timer
+    private static final ExecutorService reconnector = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "buzzer-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final BuzzerCallback callback;
+    // copied on write, and iterated as a plain array so dispatching an event doesn't allocate
+    private volatile Listener[] listeners = new Listener[0];
+
+    private volatile SerialTransport transport;
+    // nothing is written from the caller's thread, everything goes through the queue's writer
+    private volatile OutboundQueue outbound;
+
+    private volatile long lastPingNanos = 0;
+    // the last ping, or the connect if there hasn't been one since
+    private volatile long pingWatchNanos = 0;
+    private volatile boolean pingTimedOut = false;
+    private volatile long pingTimeoutNanos = DEFAULT_PING_TIMEOUT_NANOS;
+
+    private volatile boolean autoReconnect = true;
+    private volatile long reconnectMinNanos = DEFAULT_RECONNECT_MIN_NANOS;
+    private volatile long reconnectMaxNanos = DEFAULT_RECONNECT_MAX_NANOS;
+    // set while the transport is closed after a ping timeout, the engine still counts as connected
+    private volatile boolean linkDown = false;
+    private volatile long linkDownNanos = 0;
+
+    private final SerialTransport.Receiver receiver = new SerialTransport.Receiver() {
+        @Override
+        public void received(byte[] data, int offset, int length) {
+            receive(data, offset, length);
+        }
+
+        @Override
+        public void error() {
+            metrics.serialError();
+        }
+    };
+
+    private final ClockSync clockSync = new ClockSync();
+    private final BuzzerMetrics metrics = new BuzzerMetrics();
+    // when the read that completed the current packet returned, so readToParse is the time spent
+    // on the packets ahead of it in that read
+    private long lastReadNanos = 0;
+
+    // cached values until the device answers, guarded by readConfig like the per-item state below
+    private final HashMap<String, String> readConfig = new HashMap<>();
+    private final long[] configRequestNanos = new long[configItems.length];
+    private final int[] configAttempts = new int[configItems.length];
+    private final boolean[] configAnswered = new boolean[configItems.length];
+    private int configOutstanding = 0;
+    // written while the link was down, sent again once it's back
+    private final Set<String> unsentConfig = new LinkedHashSet<>();
+    // only changed under readConfig, read without it by the ping check
+    private volatile int connection = 0;
+    private volatile ConfigCache configCache = ConfigCache.getDefault();
+
+    private final PacketFramer framer = new PacketFramer(this::processPacket);
+
+    private volatile OtaTransfer otaTransfer;
+    private volatile OtaTransfer spiffsTransfer;
+    private volatile Path otaProgressDirectory = OtaProgress.DEFAULT_DIRECTORY;
+    // how long a transfer waits on an unanswered request, 0 for OtaTransfer's own default
+    private volatile long otaRetryNanos = 0;
+    // an update cut off by disconnecting, picked up again on connecting to the same device
+    private FirmwareImage interruptedImage;
+    private String interruptedDevice;
+
+    // where each connection's wire traffic is journalled, if anywhere
+    private volatile Path journalDirectory;
+    private volatile int journalSegmentSize = WireJournal.DEFAULT_SEGMENT_SIZE;
+    private volatile int journalMaxSegments = WireJournal.DEFAULT_MAX_SEGMENTS;
+    private volatile WireJournal journal;
+
+    // where BT_PACKET_LOG lines go, dropped if nowhere
+    private volatile DeviceLog deviceLog;
+
+    private final byte[] clearCommand = CommandDecoder.encode(BUZZER_CMD.CLEAR);
+
+    public BuzzerEngine(BuzzerCallback callback) {
+        this.callback = callback;
+        if (callback instanceof EventDispatcher dispatcher) {
+            // failures on its consumer thread count as the engine's callback errors
+            dispatcher.setMetrics(metrics);
+        }
+    }
+
+    // return all ports that start with (probably equal) 'BQS_BUZZER' (v.19) or 'Buzzer'
+    public static SerialPort[] findPorts() {
+        return Arrays.stream(SerialPort.getCommPorts()).filter(BuzzerEngine::isBuzzerPort).toArray(SerialPort[]::new);
+    }
+
+    public static boolean isBuzzerPort(SerialPort port) {
+        final String description = port.getPortDescription();
+        return description.startsWith("BQS_BUZZER") || description.startsWith("Buzzer");
+    }
+
+    public synchronized void addListener(Listener listener) {
+        final Listener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(Listener[]::new);
+    }
+
+    public boolean isConnected() {
+        return transport != null;
+    }
+
+    public SerialTransport getTransport() {
+        return transport;
+    }
+
+    // the jSerialComm port, or null when not connected over one
+    public SerialPort getPort() {
+        return transport instanceof SerialPortTransport serial ? serial.getPort() : null;
+    }
+
+    public long getLastPingNanos() {
+        return lastPingNanos;
+    }
+
+    // how long the device can go without pinging before listeners hear about it, 0 to not check
+    public void setPingTimeout(long timeout, TimeUnit unit) {
+        this.pingTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    // whether a ping timeout drops and reopens the link, on by default
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    // first wait before reopening a dropped link, doubled after every failed attempt up to max
+    public void setReconnectBackoff(long min, long max, TimeUnit unit) {
+        this.reconnectMinNanos = Math.max(1, unit.toNanos(min));
+        this.reconnectMaxNanos = Math.max(reconnectMinNanos, unit.toNanos(max));
+    }
+
+    // false while a dropped link is being reopened
+    public boolean isLinkUp() {
+        return transport != null && !linkDown;
+    }
+
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    public BuzzerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean connect(SerialPort port) {
+        return connect(new SerialPortTransport(port));
+    }
+
+    public synchronized boolean connect(SerialTransport transport) {
+        if (this.transport != null) {
+            disconnect();
+        }
+
+        framer.reset();
+        clockSync.reset();
+        final ConfigCache cache = configCache;
+        final Map<String, String> cached = cache != null ? cache.get(transport.getName()) : Map.of();
+        synchronized (readConfig) {
+            readConfig.clear();
+            readConfig.putAll(cached);
+            configOutstanding = 0;
+            unsentConfig.clear();
+            connection++;
+        }
+        linkDown = false;
+        pingWatchNanos = System.nanoTime();
+        pingTimedOut = false;
+        // set first, anything the device sends as soon as it's open may need a reply
+        this.transport = transport;
+        this.journal = openJournal(transport.getName());
+        this.outbound = newOutboundQueue(transport);
+        if (!transport.open(receiver)) {
+            this.transport = null;
+            outbound.close();
+            outbound = null;
+            closeJournal();
+            return false;
+        }
+
+        metrics.register(transport.getName());
+
+        for (Listener listener : listeners) {
+            listener.connected(transport);
+        }
+
+        // usable straight away with what it had last time, then corrected as the replies come in
+        if (!cached.isEmpty()) {
+            final Map<String, String> config = getConfig();
+            for (Listener listener : listeners) {
+                listener.configRead(config);
+            }
+        }
+        requestConfig();
+        schedulePingCheck(connection, 0);
+
+        if (interruptedImage != null && transport.getName().equals(interruptedDevice)) {
+            startTransfer(interruptedImage);
+        }
+        interruptedImage = null;
+        interruptedDevice = null;
+        return true;
+    }
+
+    public synchronized void disconnect() {
+        final SerialTransport current = transport;
+        if (current == null) {
+            return;
+        }
+        final OtaTransfer transfer = otaTransfer;
+        if (transfer != null && !transfer.isFinished()) {
+            interruptedImage = (FirmwareImage) transfer.getImage();
+            interruptedDevice = current.getName();
+        }
+        stopTransfer();
+        cancelSpiffsUpload();
+        transport = null;
+        final OutboundQueue queue = outbound;
+        if (queue != null) {
+            // lets anything already queued (a last CLEAR, say) go out first
+            queue.close();
+            outbound = null;
+        }
+        if (!linkDown) {
+            current.close();
+        }
+        linkDown = false;
+        framer.reset();
+        metrics.unregister();
+        closeJournal();
+
+        for (Listener listener : listeners) {
+            listener.disconnected(current);
+        }
+    }
+
+    private OutboundQueue newOutboundQueue(SerialTransport transport) {
+        return new OutboundQueue(transport, (data, length, frames) -> {
+            metrics.packetsOut(frames);
+            metrics.bytesOut(length);
+            final WireJournal current = journal;
+            if (current != null) {
+                current.recordFrames(WireJournal.OUT, System.nanoTime(), data, 0, length);
+            }
+        });
+    }
+
+    public Map<String, String> getConfig() {
+        synchronized (readConfig) {
+            return Collections.unmodifiableMap(new HashMap<>(readConfig));
+        }
+    }
+
+    // as last read from the device (or its cache), so false until configRead on a first connect
+    public boolean hasCapability(String capability) {
+        final String caps;
+        synchronized (readConfig) {
+            caps = readConfig.get(CONFIG_CAPABILITIES);
+        }
+        return caps != null && Arrays.asList(caps.split(",")).contains(capability);
+    }
+
+    public void writeConfig(String key, String value) {
+        write(BT_PACKET_CONFIG_WRITE, key + "=" + value);
+        synchronized (readConfig) {
+            readConfig.put(key, value);
+            if (linkDown) {
+                unsentConfig.add(key);
+            }
+        }
+        final SerialTransport current = transport;
+        final ConfigCache cache = configCache;
+        if (current != null && cache != null) {
+            cache.put(current.getName(), Map.of(key, value));
+        }
+    }
+
+    // records every frame in and out of each connection made from now on, null to stop.
+    // segments are kept per device, the oldest deleted once there are more than maxSegments
+    public void setJournal(Path directory) {
+        setJournal(directory, WireJournal.DEFAULT_SEGMENT_SIZE, WireJournal.DEFAULT_MAX_SEGMENTS);
+    }
+
+    public void setJournal(Path directory, int segmentSize, int maxSegments) {
+        this.journalSegmentSize = segmentSize;
+        this.journalMaxSegments = maxSegments;
+        this.journalDirectory = directory;
+    }
+
+    // may be shared between engines, the caller closes it
+    public void setDeviceLog(DeviceLog log) {
+        this.deviceLog = log;
+    }
+
+    public DeviceLog getDeviceLog() {
+        return deviceLog;
+    }
+
+    // the journal of the current connection, null if there isn't one
+    public WireJournal getJournal() {
+        return journal;
+    }
+
+    private WireJournal openJournal(String device) {
+        final Path directory = journalDirectory;
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new WireJournal(directory, device, journalSegmentSize, journalMaxSegments);
+        } catch (IOException | IllegalArgumentException ex) {
+            // carry on without one
+            return null;
+        }
+    }
+
+    private void closeJournal() {
+        final WireJournal current = journal;
+        journal = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    // where the last known config of each device is kept, null to not keep it
+    public void setConfigCache(ConfigCache cache) {
+        this.configCache = cache;
+    }
+
+    public void setVolume(int percent) {
+        writeConfig(CONFIG_VOLUME, Integer.toString(Math.max(0, Math.min(100, percent))));
+    }
+
+    public void setRGBTimerEnabled(boolean enabled) {
+        writeConfig(CONFIG_RGB_TIMER, enabled ? "1" : "0");
+    }
+
+    public void setQMTimerEnabled(boolean enabled) {
+        writeConfig(CONFIG_QM_TIMER, enabled ? "1" : "0");
+    }
+
+    public void clearBuzzer() {
+        writePacket(BT_PACKET_CMD, clearCommand);
+    }
+
+    public void startFirmwareUpdate(Path firmware) throws IOException {
+        startFirmwareUpdate(FirmwareImage.open(firmware, OtaTransfer.PACKET_SIZE));
+    }
+
+    // returns the number of packets the image will be sent in
+    synchronized int startFirmwareUpdate(FirmwareImage image) {
+        cancelFirmwareUpdate();
+        return startTransfer(image);
+    }
+
+    private int startTransfer(FirmwareImage image) {
+        final OtaTransfer transfer = new OtaTransfer(this::writeFrame, image, OtaTransfer.FIRMWARE, new OtaTransfer.Listener() {
+            @Override
+            public void progress(int packetsAcked, int packetCount, long bytesPerSecond) {
+                for (Listener listener : listeners) {
+                    listener.otaProgress(packetsAcked, packetCount, bytesPerSecond);
+                }
+            }
+
+            @Override
+            public void complete(int bytes, long elapsedNanos, long bytesPerSecond) {
+                for (Listener listener : listeners) {
+                    listener.otaComplete(bytes, elapsedNanos, bytesPerSecond);
+                }
+            }
+
+            @Override
+            public void roundTrip(long sentNanos, long receivedNanos) {
+                clockSync.onRoundTrip(sentNanos, receivedNanos);
+            }
+
+            @Override
+            public void turnaround(long nanos, int packets) {
+                metrics.otaTurnaround.record(nanos);
+            }
+        }, openOtaProgress(image));
+        otaTransfer = transfer;
+        if (otaRetryNanos > 0) {
+            transfer.setRetryTimeout(otaRetryNanos, TimeUnit.NANOSECONDS);
+        }
+        if (linkDown) {
+            // started while reconnecting, it waits for linkRestored like any other
+            transfer.linkLost();
+        }
+        transfer.start();
+        return transfer.getPacketCount();
+    }
+
+    public synchronized void cancelFirmwareUpdate() {
+        interruptedImage = null;
+        interruptedDevice = null;
+        stopTransfer();
+    }
+
+    private void stopTransfer() {
+        final OtaTransfer transfer = otaTransfer;
+        if (transfer != null) {
+            transfer.cancel();
+            otaTransfer = null;
+        }
+    }
+
+    // streams a SPIFFS image from disk, returning the number of packets it will be sent in
+    public int startSpiffsUpload(Path image) throws IOException {
+        return startSpiffsUpload(SpiffsImage.open(image, OtaTransfer.PACKET_SIZE));
+    }
+
+    // paced by the device's requests if it has said it can make them, so this belongs after configRead
+    synchronized int startSpiffsUpload(SpiffsImage image) {
+        cancelSpiffsUpload();
+        final OtaTransfer.PacketTypes types = hasCapability(CAPABILITY_SPIFFS_REQ) ? OtaTransfer.SPIFFS : OtaTransfer.SPIFFS_STREAM;
+        final OtaTransfer transfer = new OtaTransfer(this::writeFrame, image, types, new OtaTransfer.Listener() {
+            @Override
+            public void progress(int packetsAcked, int packetCount, long bytesPerSecond) {
+                for (Listener listener : listeners) {
+                    listener.spiffsProgress(packetsAcked, packetCount, bytesPerSecond);
+                }
+            }
+
+            @Override
+            public void complete(int bytes, long elapsedNanos, long bytesPerSecond) {
+                for (Listener listener : listeners) {
+                    listener.spiffsComplete(bytes, elapsedNanos, bytesPerSecond);
+                }
+            }
+
+            @Override
+            public void roundTrip(long sentNanos, long receivedNanos) {
+                clockSync.onRoundTrip(sentNanos, receivedNanos);
+            }
+
+            @Override
+            public void turnaround(long nanos, int packets) {
+                metrics.otaTurnaround.record(nanos);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                for (Listener listener : listeners) {
+                    listener.spiffsFailed(ex);
+                }
+            }
+        }, null);
+        spiffsTransfer = transfer;
+        if (otaRetryNanos > 0) {
+            transfer.setRetryTimeout(otaRetryNanos, TimeUnit.NANOSECONDS);
+        }
+        if (linkDown) {
+            // started while reconnecting, it waits for linkRestored like any other
+            transfer.linkLost();
+        }
+        transfer.start();
+        return transfer.getPacketCount();
+    }
+
+    public synchronized void cancelSpiffsUpload() {
+        final OtaTransfer transfer = spiffsTransfer;
+        if (transfer != null) {
+            transfer.cancel();
+            spiffsTransfer = null;
+        }
+    }
+
+    // where the progress of each update is kept so an interrupted one can resume, null to not keep it
+    public void setOtaProgressDirectory(Path directory) {
+        this.otaProgressDirectory = directory;
+    }
+
+    // applies to transfers started from now on
+    void setOtaRetryTimeout(long timeout, TimeUnit unit) {
+        this.otaRetryNanos = unit.toNanos(timeout);
+    }
+
+    private OtaProgress openOtaProgress(FirmwareImage image) {
+        final Path directory = otaProgressDirectory;
+        final SerialTransport current = transport;
+        if (directory == null || current == null) {
+            return null;
+        }
+        try {
+            return OtaProgress.open(directory, current.getName(), image);
+        } catch (IOException | RuntimeException ex) {
+            // the update just can't resume
+            return null;
+        }
+    }
+
+    // everything read from the transport comes through here, the benchmarks also feed it directly
+    void receive(byte[] data, int offset, int length) {
+        lastReadNanos = System.nanoTime();
+        metrics.bytesIn(length);
+        framer.feed(data, offset, length);
+    }
+
+    private void writeFrame(byte[] frame, int length) {
+        final OutboundQueue queue = outbound;
+        if (queue == null)
+            return;
+
+        queue.write(frame, length);
+    }
+
+    private void write(final short type, String packet) {
+        // get ascii bytes
+        writePacket(type, packet.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writePacket(final short type, byte[] packetData) {
+        if (transport == null)
+            return;
+
+        final byte[] payload = frame(type, packetData);
+        writeFrame(payload, payload.length);
+    }
+
+    // asks for every config item at once, in one write, rather than one round trip per item
+    private void requestConfig() {
+        final byte[][] requests = new byte[configItems.length][];
+        int length = 0;
+        for (int i = 0; i < configItems.length; i++) {
+            requests[i] = frame(BT_PACKET_CONFIG_READ, configItems[i].getBytes(StandardCharsets.US_ASCII));
+            length += requests[i].length;
+        }
+        final byte[] batch = new byte[length];
+        int pos = 0;
+        for (byte[] request : requests) {
+            System.arraycopy(request, 0, batch, pos, request.length);
+            pos += request.length;
+        }
+
+        final int generation;
+        synchronized (readConfig) {
+            final long now = System.nanoTime();
+            Arrays.fill(configRequestNanos, now);
+            Arrays.fill(configAttempts, 1);
+            Arrays.fill(configAnswered, false);
+            configOutstanding = configItems.length;
+            generation = connection;
+        }
+        writeFrame(batch, batch.length);
+        scheduleConfigCheck(generation);
+    }
+
+    private void scheduleConfigCheck(int generation) {
+        timer.schedule(() -> checkConfig(generation), CONFIG_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    private void schedulePingCheck(int generation, long delayNanos) {
+        timer.schedule(() -> checkPing(generation), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // rather than being re-armed by every ping, the check looks at when the last one came and
+    // sleeps for whatever is left of the timeout
+    private void checkPing(int generation) {
+        if (generation != connection || transport == null) {
+            return;
+        }
+        final long timeout = pingTimeoutNanos;
+        if (timeout <= 0) {
+            // look again later in case it's turned back on
+            schedulePingCheck(generation, DEFAULT_PING_TIMEOUT_NANOS);
+            return;
+        }
+        final long silent = System.nanoTime() - pingWatchNanos;
+        if (silent < timeout) {
+            schedulePingCheck(generation, timeout - silent);
+            return;
+        }
+        if (!pingTimedOut) {
+            pingTimedOut = true;
+            for (Listener listener : listeners) {
+                try {
+                    listener.pingTimeout(silent);
+                } catch (Exception ex) {
+                    metrics.callbackError();
+                }
+            }
+            if (autoReconnect) {
+                // closing a port blocks, keep it off the timer every engine shares
+                reconnector.execute(() -> dropLink(generation));
+            }
+        }
+        schedulePingCheck(generation, timeout);
+    }
+
+    // closes a link that has gone quiet, leaving the connection (config, journal, any OTA in
+    // progress) in place for when it comes back. runs on the reconnector, and does the blocking
+    // part (the writer draining, the port closing) outside the lock so disconnect() isn't held up
+    private void dropLink(int generation) {
+        final SerialTransport current;
+        final OutboundQueue queue;
+        synchronized (this) {
+            current = transport;
+            if (generation != connection || current == null || linkDown) {
+                return;
+            }
+            linkDown = true;
+            linkDownNanos = System.nanoTime();
+            queue = outbound;
+            outbound = null;
+        }
+        for (OtaTransfer transfer : new OtaTransfer[] {otaTransfer, spiffsTransfer}) {
+            if (transfer != null) {
+                transfer.linkLost();
+            }
+        }
+        if (queue != null) {
+            queue.close();
+        }
+        current.close();
+        if (generation != connection || transport != current) {
+            // disconnected (or connected elsewhere) while it was closing
+            return;
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.linkDown(current);
+            } catch (Exception ex) {
+                metrics.callbackError();
+            }
+        }
+        scheduleReconnect(generation, reconnectMinNanos);
+    }
+
+    private void scheduleReconnect(int generation, long delayNanos) {
+        timer.schedule(() -> reconnector.execute(() -> reconnect(generation, delayNanos)), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // the open can take seconds, so it happens outside the lock and the link is only put back if
+    // nothing (disconnect, connecting elsewhere) has happened to the engine in the meantime
+    private void reconnect(int generation, long delayNanos) {
+        final SerialTransport current;
+        synchronized (this) {
+            current = transport;
+            if (generation != connection || current == null || !linkDown) {
+                // disconnected or connected elsewhere meanwhile
+                return;
+            }
+        }
+        // a fragment left over from before the drop would corrupt the first packet
+        framer.reset();
+        // the device may have rebooted while it was out of reach
+        clockSync.reset();
+        if (!current.open(receiver)) {
+            // with some jitter, so a room full of boxes coming back doesn't retry in lockstep
+            final long next = Math.min(reconnectMaxNanos, delayNanos * 2);
+            scheduleReconnect(generation, next + ThreadLocalRandom.current().nextLong(next / 4 + 1));
+            return;
+        }
+
+        final int relinked;
+        final Map<String, String> resend = new HashMap<>();
+        synchronized (this) {
+            if (generation != connection || transport != current || !linkDown) {
+                // too late, the link isn't wanted any more
+                if (transport != current) {
+                    current.close();
+                }
+                return;
+            }
+            outbound = newOutboundQueue(current);
+            synchronized (readConfig) {
+                for (String key : unsentConfig) {
+                    resend.put(key, readConfig.get(key));
+                }
+                unsentConfig.clear();
+                configOutstanding = 0;
+                relinked = ++connection;
+            }
+            pingWatchNanos = System.nanoTime();
+            pingTimedOut = false;
+            linkDown = false;
+        }
+
+        final long downNanos = System.nanoTime() - linkDownNanos;
+        for (Listener listener : listeners) {
+            try {
+                listener.linkUp(current, downNanos);
+            } catch (Exception ex) {
+                metrics.callbackError();
+            }
+        }
+        for (OtaTransfer transfer : new OtaTransfer[] {otaTransfer, spiffsTransfer}) {
+            if (transfer != null) {
+                transfer.linkRestored();
+            }
+        }
+        // ahead of the reads, so they come back with what was set while the link was down
+        for (Map.Entry<String, String> entry : resend.entrySet()) {
+            write(BT_PACKET_CONFIG_WRITE, entry.getKey() + "=" + entry.getValue());
+        }
+        requestConfig();
+        schedulePingCheck(relinked, 0);
+    }
+
+    // asks again for anything that hasn't been answered in time, giving up after a few tries
+    private void checkConfig(int generation) {
+        final List<String> retry = new ArrayList<>();
+        final boolean complete;
+        synchronized (readConfig) {
+            if (generation != connection || configOutstanding == 0 || transport == null) {
+                return;
+            }
+            final long now = System.nanoTime();
+            for (int i = 0; i < configItems.length; i++) {
+                if (configAnswered[i] || now - configRequestNanos[i] < CONFIG_TIMEOUT_NANOS) {
+                    continue;
+                }
+                if (configAttempts[i] < CONFIG_ATTEMPTS) {
+                    configAttempts[i]++;
+                    configRequestNanos[i] = now;
+                    retry.add(configItems[i]);
+                } else {
+                    // keep whatever was cached for it
+                    configAnswered[i] = true;
+                    configOutstanding--;
+                }
+            }
+            complete = configOutstanding == 0;
+        }
+        for (String key : retry) {
+            write(BT_PACKET_CONFIG_READ, key);
+        }
+        if (complete) {
+            configComplete();
+        } else {
+            scheduleConfigCheck(generation);
+        }
+    }
+
+    // returns true if that was the last item outstanding
+    private boolean onConfigReply(String key, String value, long receivedNanos) {
+        synchronized (readConfig) {
+            for (int i = 0; i < configItems.length; i++) {
+                if (!configItems[i].equals(key)) {
+                    continue;
+                }
+                if (!value.isEmpty()) {
+                    readConfig.put(key, value);
+                } else if (key.equals(CONFIG_CAPABILITIES)) {
+                    // unlike a setting, a cached capability from before a downgrade mustn't stick
+                    readConfig.remove(key);
+                }
+                if (configAnswered[i]) {
+                    return false;
+                }
+                // a retried item can't be timed, the reply may be to any of the requests
+                if (configAttempts[i] == 1) {
+                    clockSync.onRoundTrip(configRequestNanos[i], receivedNanos);
+                }
+                configAnswered[i] = true;
+                return --configOutstanding == 0;
+            }
+        }
+        return false;
+    }
+
+    private void configComplete() {
+        final Map<String, String> config = getConfig();
+        final SerialTransport current = transport;
+        final ConfigCache cache = configCache;
+        if (current != null && cache != null) {
+            cache.put(current.getName(), config);
+        }
+        for (Listener listener : listeners) {
+            listener.configRead(config);
+        }
+    }
+
+    private void processPacket(short type, byte[] data, int offset, int length) {
+        final long receivedNanos = System.nanoTime();
+        metrics.readToParse.record(receivedNanos - lastReadNanos);
+        final WireJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.record(WireJournal.IN, receivedNanos, type, data, offset, length);
+        }
+        boolean timestamp = (type & BT_TIMESTAMP) != 0;
+        final int eventTime;
+        if (timestamp && length >= 4) {
+            // read the last 4 bytes as a timestamp
+            eventTime = readIntLE(data, offset + length - 4);
+            length -= 4;
+            clockSync.onDeviceTime(eventTime, receivedNanos);
+        } else {
+            if (timestamp) {
+                // flagged as timestamped but too short to hold one
+                metrics.framingError();
+            }
+            eventTime = 0;
+        }
+        short baseType = (short) (type & ~BT_TIMESTAMP);
+        metrics.packetIn(baseType);
+        switch (baseType) {
+            case BT_PACKET_PING:
+                lastPingNanos = receivedNanos;
+                pingWatchNanos = receivedNanos;
+                pingTimedOut = false;
+                // send a response ping
+                writePacket(BT_PACKET_BQT_PING, EMPTY);
+                break;
+            case BT_PACKET_CONFIG_READ:
+                try {
+                    final String config = new String(data, offset, length, StandardCharsets.US_ASCII);
+                    int pos = config.indexOf("=");
+                    String key = config.substring(0, pos);
+                    String value = config.substring(pos + 1);
+                    if (onConfigReply(key, value, receivedNanos)) {
+                        configComplete();
+                    }
+                } catch (Exception ex) {
+                    // not a key=value pair
+                    metrics.framingError();
+                }
+                break;
+            case BT_PACKET_CMD:
+                {
+                    final BUZZER_CMD cmd = CommandDecoder.decode(data, offset, length);
+                    if (cmd != null) {
+                        // up to here, not through the application's callbacks
+                        metrics.parseToCallback.record(System.nanoTime() - receivedNanos);
+                        if (callback != null) {
+                            try {
+                                callback.action(cmd, eventTime);
+                            } catch (Exception ex) {
+                                metrics.callbackError();
+                            }
+                        }
+                        final Listener[] current = listeners;
+                        if (current.length > 0) {
+                            final long hostNanos = timestamp ? clockSync.toHostNanos(eventTime) : receivedNanos;
+                            for (Listener listener : current) {
+                                try {
+                                    listener.buzzerEvent(cmd, eventTime, hostNanos);
+                                } catch (Exception ex) {
+                                    metrics.callbackError();
+                                }
+                            }
+                        }
+                    } else {
+                        metrics.framingError();
+                    }
+                }
+                break;
+            case BT_PACKET_OTA_REQ:
+                {
+                    final OtaTransfer transfer = otaTransfer;
+                    if (transfer != null) {
+                        transfer.onRequest(data, offset, length);
+                    }
+                }
+                break;
+            case BT_PACKET_SPIFFS_REQ:
+                {
+                    final OtaTransfer transfer = spiffsTransfer;
+                    if (transfer != null) {
+                        transfer.onRequest(data, offset, length);
+                    }
+                }
+                break;
+            case BT_PACKET_LOG:
+                {
+                    // copied and handed off, never waits on the disk
+                    final DeviceLog log = deviceLog;
+                    final SerialTransport current = transport;
+                    if (log != null && current != null) {
+                        log.offer(current.getName(), eventTime, data, offset, length);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
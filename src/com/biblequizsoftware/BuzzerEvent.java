@@ -0,0 +1,10 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+// a button event from one device in a BuzzerManager.
+// eventTime is the device's own clock (0 if the packet had no timestamp), receivedNanos is
+// System.nanoTime() when the packet was parsed and hostNanos is the event's place on the
+// merged timeline.
+public record BuzzerEvent(String device, BUZZER_CMD cmd, int eventTime, long receivedNanos, long hostNanos) {
+}
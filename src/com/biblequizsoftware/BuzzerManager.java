@@ -0,0 +1,209 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// drives any number of buzzer boxes from one process.
+//
+// every port (or other transport) gets its own BuzzerEngine (and so its own reader and framer). events from all of
+// them are merged into one stream ordered by device event time, mapped onto the host clock by
+// each engine's ClockSync, and are held until the reorder window has passed their place on
+// that timeline so a press that arrives late over Bluetooth still goes out in order.
+public class BuzzerManager {
+    @FunctionalInterface
+    public interface EventListener {
+        void event(BuzzerEvent event);
+    }
+
+    private static final long DEFAULT_REORDER_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final EventListener listener;
+    private final long reorderNanos;
+
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<BuzzerEvent> pending = new PriorityQueue<>(
+        Comparator.comparingLong(BuzzerEvent::hostNanos).thenComparingLong(BuzzerEvent::receivedNanos));
+
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+    private volatile DeviceLog deviceLog;
+
+    public BuzzerManager(EventListener listener) {
+        this(listener, DEFAULT_REORDER_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public BuzzerManager(EventListener listener, long reorderWindow, TimeUnit unit) {
+        this.listener = listener;
+        this.reorderNanos = unit.toNanos(reorderWindow);
+        this.dispatcher = new Thread(this::dispatch, "buzzer-merge");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    // opens every port at the same time, returning the ids of those that connected
+    public List<String> connectAll(SerialPort[] ports) {
+        return connectAll(Arrays.stream(ports).map(SerialPortTransport::new).toArray(SerialTransport[]::new));
+    }
+
+    public List<String> connectAll(SerialTransport[] transports) {
+        final ExecutorService opener = Executors.newFixedThreadPool(Math.max(1, Math.min(transports.length, 8)));
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (SerialTransport transport : transports) {
+                results.add(opener.submit(() -> connect(transport)));
+            }
+            final List<String> connected = new ArrayList<>();
+            for (int i = 0; i < transports.length; i++) {
+                try {
+                    if (results.get(i).get()) {
+                        connected.add(deviceId(transports[i]));
+                    }
+                } catch (ExecutionException ex) {
+                    // couldn't open that one, carry on with the rest
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return connected;
+        } finally {
+            opener.shutdown();
+        }
+    }
+
+    public boolean connect(SerialPort port) {
+        return connect(new SerialPortTransport(port));
+    }
+
+    public boolean connect(SerialTransport transport) {
+        final String id = deviceId(transport);
+        final Device device = devices.computeIfAbsent(id, Device::new);
+        if (device.engine.isConnected() || device.engine.connect(transport)) {
+            return true;
+        }
+        devices.remove(id, device);
+        return false;
+    }
+
+    public void disconnect(String deviceId) {
+        final Device device = devices.remove(deviceId);
+        if (device != null) {
+            device.engine.disconnect();
+        }
+    }
+
+    public void disconnectAll() {
+        for (String id : devices.keySet()) {
+            disconnect(id);
+        }
+    }
+
+    public void close() {
+        disconnectAll();
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    // one log for every device, each line tagged with the port it came from
+    public void setDeviceLog(DeviceLog log) {
+        this.deviceLog = log;
+        for (Device device : devices.values()) {
+            device.engine.setDeviceLog(log);
+        }
+    }
+
+    public Set<String> getDevices() {
+        return devices.keySet();
+    }
+
+    public BuzzerEngine getEngine(String deviceId) {
+        final Device device = devices.get(deviceId);
+        return device != null ? device.engine : null;
+    }
+
+    public void clearAll() {
+        for (Device device : devices.values()) {
+            device.engine.clearBuzzer();
+        }
+    }
+
+    static String deviceId(SerialTransport transport) {
+        return transport.getName();
+    }
+
+    private void enqueue(BuzzerEvent event) {
+        lock.lock();
+        try {
+            pending.add(event);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            final BuzzerEvent next;
+            lock.lock();
+            try {
+                final BuzzerEvent head = pending.peek();
+                if (head == null) {
+                    changed.await();
+                    continue;
+                }
+                final long wait = head.hostNanos() + reorderNanos - System.nanoTime();
+                if (wait > 0) {
+                    changed.awaitNanos(wait);
+                    continue;
+                }
+                next = pending.poll();
+            } catch (InterruptedException ex) {
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                listener.event(next);
+            } catch (Exception ex) {
+            }
+        }
+    }
+
+    private final class Device implements BuzzerEngine.Listener {
+        private final String id;
+        private final BuzzerEngine engine;
+
+        Device(String id) {
+            this.id = id;
+            this.engine = new BuzzerEngine(null);
+            this.engine.addListener(this);
+            this.engine.setDeviceLog(deviceLog);
+        }
+
+        @Override
+        public void buzzerEvent(BUZZER_CMD cmd, int eventTime, long hostNanos) {
+            // a device clock that hasn't synced yet can't be placed ahead of now
+            final long now = System.nanoTime();
+            enqueue(new BuzzerEvent(id, cmd, eventTime, now, Math.min(hostNanos, now)));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.biblequizsoftware;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters and latency histograms for one engine's serial pipeline.
+//
+// everything on the hot path is a LongAdder increment or a histogram record, so it's cheap
+// enough to leave on permanently. read it through snapshot() or over JMX once registered.
+//
+// the byte rates are sampled once a second on the shared timer, so reading them (from any
+// number of JMX clients at once) never moves the window. readToParse runs from the read that
+// completed a packet to the packet being parsed, i.e. the time spent on the packets ahead of it
+// in the same read: the port gives no way to tell how long bytes waited before the read.
+// parseToCallback runs from the packet being parsed to the first callback being called.
+public class BuzzerMetrics implements BuzzerMetricsMXBean {
+    public record Snapshot(
+        long packetsIn,
+        long packetsOut,
+        long bytesIn,
+        long bytesOut,
+        long bytesInPerSecond,
+        long bytesOutPerSecond,
+        Map<String, Long> packetsInByType,
+        long framingErrors,
+        long serialErrors,
+        long callbackErrors,
+        LatencyHistogram.Snapshot readToParse,
+        LatencyHistogram.Snapshot parseToCallback,
+        LatencyHistogram.Snapshot otaTurnaround) {
+    }
+
+    // base packet types are small, anything past this is counted as unknown
+    private static final int TYPE_SLOTS = 32;
+
+    private final LongAdder[] packetsByType = new LongAdder[TYPE_SLOTS + 1];
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framingErrors = new LongAdder();
+    private final LongAdder serialErrors = new LongAdder();
+    private final LongAdder callbackErrors = new LongAdder();
+
+    final LatencyHistogram readToParse = new LatencyHistogram();
+    final LatencyHistogram parseToCallback = new LatencyHistogram();
+    final LatencyHistogram otaTurnaround = new LatencyHistogram();
+
+    private final long createdNanos = System.nanoTime();
+
+    private static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // rates are worked out against the previous sample
+    private long rateNanos = createdNanos;
+    private long rateBytesIn = 0;
+    private long rateBytesOut = 0;
+    private volatile long bytesInPerSecond = 0;
+    private volatile long bytesOutPerSecond = 0;
+
+    private ObjectName registeredName;
+
+    public BuzzerMetrics() {
+        for (int i = 0; i < packetsByType.length; i++) {
+            packetsByType[i] = new LongAdder();
+        }
+        scheduleRates(new WeakReference<>(this));
+    }
+
+    // held weakly, sampling stops once the metrics (and their engine) are gone
+    private static void scheduleRates(WeakReference<BuzzerMetrics> ref) {
+        TimerWheel.shared().schedule(() -> {
+            final BuzzerMetrics metrics = ref.get();
+            if (metrics != null) {
+                metrics.sampleRates();
+                scheduleRates(ref);
+            }
+        }, RATE_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    void packetIn(int baseType) {
+        packetsIn.increment();
+        packetsByType[baseType >= 0 && baseType < TYPE_SLOTS ? baseType : TYPE_SLOTS].increment();
+    }
+
+    void packetsOut(int count) {
+        packetsOut.add(count);
+    }
+
+    void bytesIn(int count) {
+        bytesIn.add(count);
+    }
+
+    void bytesOut(int count) {
+        bytesOut.add(count);
+    }
+
+    void framingError() {
+        framingErrors.increment();
+    }
+
+    void serialError() {
+        serialErrors.increment();
+    }
+
+    void callbackError() {
+        callbackErrors.increment();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(getPacketsIn(), getPacketsOut(), getBytesIn(), getBytesOut(), bytesInPerSecond, bytesOutPerSecond,
+            getPacketsInByType(), getFramingErrors(), getSerialErrors(), getCallbackErrors(),
+            readToParse.snapshot(), parseToCallback.snapshot(), otaTurnaround.snapshot());
+    }
+
+    public long getUptimeNanos() {
+        return System.nanoTime() - createdNanos;
+    }
+
+    // registers under com.biblequizsoftware:type=BuzzerMetrics,name=<name>, replacing anything already there
+    public synchronized void register(String name) {
+        unregister();
+        try {
+            final ObjectName objectName = new ObjectName("com.biblequizsoftware:type=BuzzerMetrics,name=" + ObjectName.quote(name));
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            } catch (InstanceAlreadyExistsException ex) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            }
+            registeredName = objectName;
+        } catch (JMException ex) {
+            // metrics are still available through snapshot()
+        }
+    }
+
+    public synchronized void unregister() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException ex) {
+            }
+            registeredName = null;
+        }
+    }
+
+    private synchronized void sampleRates() {
+        final long now = System.nanoTime();
+        final long elapsed = now - rateNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        final long in = bytesIn.sum();
+        final long out = bytesOut.sum();
+        bytesInPerSecond = (in - rateBytesIn) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        bytesOutPerSecond = (out - rateBytesOut) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        rateBytesIn = in;
+        rateBytesOut = out;
+        rateNanos = now;
+    }
+
+    @Override
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    @Override
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getBytesInPerSecond() {
+        return bytesInPerSecond;
+    }
+
+    @Override
+    public long getBytesOutPerSecond() {
+        return bytesOutPerSecond;
+    }
+
+    @Override
+    public Map<String, Long> getPacketsInByType() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < packetsByType.length; i++) {
+            final long count = packetsByType[i].sum();
+            if (count > 0) {
+                counts.put(i < TYPE_SLOTS ? BuzzerProtocol.typeName(i) : "UNKNOWN", count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getFramingErrors() {
+        return framingErrors.sum();
+    }
+
+    @Override
+    public long getSerialErrors() {
+        return serialErrors.sum();
+    }
+
+    @Override
+    public long getCallbackErrors() {
+        return callbackErrors.sum();
+    }
+
+    @Override
+    public long getReadToParseP50Nanos() {
+        return readToParse.percentileNanos(50);
+    }
+
+    @Override
+    public long getReadToParseP99Nanos() {
+        return readToParse.percentileNanos(99);
+    }
+
+    @Override
+    public long getReadToParseMaxNanos() {
+        return readToParse.getMaxNanos();
+    }
+
+    @Override
+    public long getParseToCallbackP50Nanos() {
+        return parseToCallback.percentileNanos(50);
+    }
+
+    @Override
+    public long getParseToCallbackP99Nanos() {
+        return parseToCallback.percentileNanos(99);
+    }
+
+    @Override
+    public long getParseToCallbackMaxNanos() {
+        return parseToCallback.getMaxNanos();
+    }
+
+    @Override
+    public long getOtaTurnaroundP50Nanos() {
+        return otaTurnaround.percentileNanos(50);
+    }
+
+    @Override
+    public long getOtaTurnaroundP99Nanos() {
+        return otaTurnaround.percentileNanos(99);
+    }
+
+    @Override
+    public long getOtaTurnaroundMaxNanos() {
+        return otaTurnaround.getMaxNanos();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : packetsByType) {
+            adder.reset();
+        }
+        packetsIn.reset();
+        packetsOut.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        framingErrors.reset();
+        serialErrors.reset();
+        callbackErrors.reset();
+        readToParse.reset();
+        parseToCallback.reset();
+        otaTurnaround.reset();
+        synchronized (this) {
+            rateNanos = System.nanoTime();
+            rateBytesIn = 0;
+            rateBytesOut = 0;
+            bytesInPerSecond = 0;
+            bytesOutPerSecond = 0;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.biblequizsoftware;
+
+import java.util.Map;
+
+// JMX view of BuzzerMetrics, registered as com.biblequizsoftware:type=BuzzerMetrics,name=<port>
+public interface BuzzerMetricsMXBean {
+    long getPacketsIn();
+    long getPacketsOut();
+    long getBytesIn();
+    long getBytesOut();
+    // over the last second, sampled on a timer rather than when read
+    long getBytesInPerSecond();
+    long getBytesOutPerSecond();
+
+    Map<String, Long> getPacketsInByType();
+
+    long getFramingErrors();
+    long getSerialErrors();
+    long getCallbackErrors();
+
+    // from the read that completed a packet to parsing it, the packets ahead of it in that read
+    long getReadToParseP50Nanos();
+    long getReadToParseP99Nanos();
+    long getReadToParseMaxNanos();
+
+    // from parsing a button packet to calling the first callback, application code isn't included
+    long getParseToCallbackP50Nanos();
+    long getParseToCallbackP99Nanos();
+    long getParseToCallbackMaxNanos();
+
+    long getOtaTurnaroundP50Nanos();
+    long getOtaTurnaroundP99Nanos();
+    long getOtaTurnaroundMaxNanos();
+
+    void reset();
+}
@@ -0,0 +1,106 @@
+package com.biblequizsoftware;
+
+// packet types and byte helpers for the buzzer wire format: [type:u16 LE][len:u16 LE][payload:len]
+final class BuzzerProtocol {
+    static final short BT_PACKET_CMD = 0;
+    static final short BT_PACKET_LOG = 1;
+    static final short BT_PACKET_PING = 2;
+    static final short BT_PACKET_BQT_PING = 3;
+
+    static final short BT_PACKET_OTA_START = 10;
+    static final short BT_PACKET_OTA_MSG = 11;
+    static final short BT_PACKET_OTA_END = 12;
+    static final short BT_PACKET_OTA_REQ = 13;
+
+    static final short BT_PACKET_SPIFFS_START = 20;
+    static final short BT_PACKET_SPIFFS_MSG = 21;
+    static final short BT_PACKET_SPIFFS_END = 22;
+    // asks for SPIFFS packets by index, the same way OTA_REQ does for firmware. only firmware that
+    // lists spiffs_req in its caps config knows it, anything older takes an unpaced SPIFFS_MSG stream
+    static final short BT_PACKET_SPIFFS_REQ = 23;
+
+    static final short BT_PACKET_CONFIG_WRITE = 30;
+    static final short BT_PACKET_CONFIG_READ = 31;
+
+    // set on packets whose last 4 bytes are the device's event time
+    static final short BT_TIMESTAMP = (short) (1 << 15);
+
+    static final int HEADER_SIZE = 4;
+
+    private BuzzerProtocol() {
+    }
+
+    static String typeName(int baseType) {
+        return switch (baseType) {
+            case BT_PACKET_CMD -> "CMD";
+            case BT_PACKET_LOG -> "LOG";
+            case BT_PACKET_PING -> "PING";
+            case BT_PACKET_BQT_PING -> "BQT_PING";
+            case BT_PACKET_OTA_START -> "OTA_START";
+            case BT_PACKET_OTA_MSG -> "OTA_MSG";
+            case BT_PACKET_OTA_END -> "OTA_END";
+            case BT_PACKET_OTA_REQ -> "OTA_REQ";
+            case BT_PACKET_SPIFFS_START -> "SPIFFS_START";
+            case BT_PACKET_SPIFFS_MSG -> "SPIFFS_MSG";
+            case BT_PACKET_SPIFFS_END -> "SPIFFS_END";
+            case BT_PACKET_SPIFFS_REQ -> "SPIFFS_REQ";
+            case BT_PACKET_CONFIG_WRITE -> "CONFIG_WRITE";
+            case BT_PACKET_CONFIG_READ -> "CONFIG_READ";
+            default -> "TYPE_" + baseType;
+        };
+    }
+
+    static int readShortLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8);
+    }
+
+    static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xff)
+            | ((data[offset + 1] & 0xff) << 8)
+            | ((data[offset + 2] & 0xff) << 16)
+            | ((data[offset + 3] & 0xff) << 24);
+    }
+
+    static void putShortLE(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >> 8);
+    }
+
+    static void putIntLE(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >> 8);
+        dst[offset + 2] = (byte) (value >> 16);
+        dst[offset + 3] = (byte) (value >> 24);
+    }
+
+    // writes a packet header into dst, returning the offset of the payload
+    static int putHeader(byte[] dst, int offset, short type, int length) {
+        putShortLE(dst, offset, type);
+        putShortLE(dst, offset + 2, length);
+        return offset + HEADER_SIZE;
+    }
+
+    static byte[] frame(short type, byte[] payload) {
+        final byte[] frame = new byte[HEADER_SIZE + payload.length];
+        System.arraycopy(payload, 0, frame, putHeader(frame, 0, type, payload.length), payload.length);
+        return frame;
+    }
+
+    // sum of the bytes as signed values
+    static short signedChecksum(byte[] data, int start, int len)
+    {
+        int sum = 0;
+        for (int i = start; i < start + len; i++)
+            sum += data[i];
+        return (short)sum;
+    }
+
+    // sum of the bytes as unsigned values, this is what the device checks OTA packets against
+    static short checksum(byte[] data, int start, int len) {
+        int csum = 0;
+        for (int i = start; i < start + len; i++) {
+            csum += (int)data[i] & 0xff;
+        }
+        return (short)csum;
+    }
+}
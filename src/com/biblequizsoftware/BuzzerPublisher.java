@@ -0,0 +1,405 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// a Flow.Publisher of what an engine (or a BuzzerManager) sees: button events plus link, config
+// and transfer status.
+//
+// attach it to an engine (or add it to a BuzzerManager) and subscribe as many times as needed.
+// events from an engine are named after whatever it's connected to at the time, so attaching
+// part way through a connection, or reconnecting to another box, names them right. each subscriber has a bounded
+// buffer of its own and is only sent what it has requested, on a pool thread, so a slow one
+// never holds up the engine or the others: once its buffer is full further events are dropped
+// for that subscriber alone, and counted.
+//
+// bySeat() and rounds() wrap a publisher to keep only some seats, or to collect the presses
+// between one CLEAR and the next. both pass demand straight through, pulling one event at a
+// time from upstream and only while the subscriber has asked for something.
+public class BuzzerPublisher implements Flow.Publisher<BuzzerPublisher.Event>, BuzzerEngine.Listener, BuzzerManager.EventListener, AutoCloseable {
+    public static final int DEFAULT_BUFFER = 256;
+
+    public sealed interface Event permits Buzz, Link, Config, Transfer {
+        String device();
+    }
+
+    public record Buzz(String device, BUZZER_CMD cmd, int eventTime, long hostNanos) implements Event {
+    }
+
+    public enum LinkState {
+        CONNECTED,
+        DISCONNECTED,
+        // dropped after a ping timeout, being reopened
+        DOWN,
+        // reopened after being down
+        UP,
+        PING_TIMEOUT
+    }
+
+    public record Link(String device, LinkState state) implements Event {
+    }
+
+    public record Config(String device, Map<String, String> config) implements Event {
+    }
+
+    // a firmware update, or a SPIFFS upload if spiffs is set
+    public record Transfer(String device, boolean spiffs, int packetsAcked, int packetCount, long bytesPerSecond, boolean complete) implements Event {
+    }
+
+    // the presses between two CLEARs, numbered from 1 for each subscriber. the first may be
+    // partial if the subscription started part way through a round
+    public record Round(int number, List<Buzz> buzzes) {
+    }
+
+    private static final ExecutorService deliverer = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "buzzer-flow");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SubmissionPublisher<Event> publisher;
+    private final LongAdder dropped = new LongAdder();
+    // whose current transport names the callbacks that don't say which device
+    private volatile BuzzerEngine engine;
+    // the last device a callback did name, for when the engine has none
+    private volatile String device;
+
+    public BuzzerPublisher() {
+        this(DEFAULT_BUFFER);
+    }
+
+    // bufferSize is per subscriber, rounded up to a power of two
+    public BuzzerPublisher(int bufferSize) {
+        this.publisher = new SubmissionPublisher<>(deliverer, bufferSize);
+    }
+
+    // adds it as one of the engine's listeners
+    public void attach(BuzzerEngine engine) {
+        this.engine = engine;
+        final SerialTransport current = engine.getTransport();
+        if (current != null) {
+            device = current.getName();
+        }
+        engine.addListener(this);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    public int getSubscriberCount() {
+        return publisher.getNumberOfSubscribers();
+    }
+
+    // events not delivered because a subscriber's buffer was full, once per subscriber missed
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // completes every subscriber once it has been sent what's buffered
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    @Override
+    public void event(BuzzerEvent event) {
+        offer(new Buzz(event.device(), event.cmd(), event.eventTime(), event.hostNanos()));
+    }
+
+    @Override
+    public void buzzerEvent(BUZZER_CMD cmd, int eventTime, long hostNanos) {
+        offer(new Buzz(device(), cmd, eventTime, hostNanos));
+    }
+
+    @Override
+    public void connected(SerialTransport transport) {
+        device = transport.getName();
+        offer(new Link(transport.getName(), LinkState.CONNECTED));
+    }
+
+    @Override
+    public void disconnected(SerialTransport transport) {
+        device = transport.getName();
+        offer(new Link(transport.getName(), LinkState.DISCONNECTED));
+    }
+
+    @Override
+    public void linkDown(SerialTransport transport) {
+        device = transport.getName();
+        offer(new Link(transport.getName(), LinkState.DOWN));
+    }
+
+    @Override
+    public void linkUp(SerialTransport transport, long downNanos) {
+        device = transport.getName();
+        offer(new Link(transport.getName(), LinkState.UP));
+    }
+
+    @Override
+    public void pingTimeout(long silentNanos) {
+        offer(new Link(device(), LinkState.PING_TIMEOUT));
+    }
+
+    @Override
+    public void configRead(Map<String, String> config) {
+        offer(new Config(device(), Map.copyOf(config)));
+    }
+
+    @Override
+    public void otaProgress(int packetsAcked, int packetCount, long bytesPerSecond) {
+        offer(new Transfer(device(), false, packetsAcked, packetCount, bytesPerSecond, false));
+    }
+
+    @Override
+    public void otaComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+        offer(new Transfer(device(), false, 0, 0, bytesPerSecond, true));
+    }
+
+    @Override
+    public void spiffsProgress(int packetsAcked, int packetCount, long bytesPerSecond) {
+        offer(new Transfer(device(), true, packetsAcked, packetCount, bytesPerSecond, false));
+    }
+
+    @Override
+    public void spiffsComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+        offer(new Transfer(device(), true, 0, 0, bytesPerSecond, true));
+    }
+
+    private String device() {
+        final BuzzerEngine source = engine;
+        final SerialTransport current = source == null ? null : source.getTransport();
+        return current != null ? current.getName() : device;
+    }
+
+    // never blocks, called on the engine's threads
+    private void offer(Event event) {
+        if (publisher.isClosed() || !publisher.hasSubscribers()) {
+            return;
+        }
+        try {
+            publisher.offer(event, (subscriber, missed) -> {
+                dropped.increment();
+                return false;
+            });
+        } catch (IllegalStateException ex) {
+            // closed in the meantime
+        }
+    }
+
+    // only the button events for the given seats (include CLEAR to keep round boundaries)
+    public static Flow.Publisher<Buzz> bySeat(Flow.Publisher<? extends Event> source, BUZZER_CMD... seats) {
+        final Set<BUZZER_CMD> keep = seats.length == 0 ? EnumSet.noneOf(BUZZER_CMD.class) : EnumSet.of(seats[0], seats);
+        return subscriber -> source.subscribe(new Operator<Event, Buzz>(subscriber) {
+            @Override
+            void accept(Event event, Consumer<Buzz> emit) {
+                if (event instanceof Buzz buzz && keep.contains(buzz.cmd())) {
+                    emit.accept(buzz);
+                }
+            }
+        });
+    }
+
+    // the presses of each round, sent as the CLEAR that ends it arrives. whatever has been
+    // pressed when the source completes is sent as a last round
+    public static Flow.Publisher<Round> rounds(Flow.Publisher<? extends Event> source) {
+        return subscriber -> source.subscribe(new Operator<Event, Round>(subscriber) {
+            private List<Buzz> current = new ArrayList<>();
+            private int number = 0;
+
+            @Override
+            void accept(Event event, Consumer<Round> emit) {
+                if (!(event instanceof Buzz buzz)) {
+                    return;
+                }
+                if (buzz.cmd() == BUZZER_CMD.CLEAR) {
+                    emit.accept(new Round(++number, List.copyOf(current)));
+                    current = new ArrayList<>();
+                } else {
+                    current.add(buzz);
+                }
+            }
+
+            @Override
+            void finish(Consumer<Round> emit) {
+                if (!current.isEmpty()) {
+                    emit.accept(new Round(++number, List.copyOf(current)));
+                }
+            }
+        });
+    }
+
+    // sits between a source and one subscriber, turning each upstream item into zero or more
+    // downstream ones. upstream is asked for one item at a time while the subscriber has demand
+    // and nothing is waiting for it. signals to the subscriber are serialised by the
+    // emitting/missed pair, and never made while holding the lock.
+    private abstract static class Operator<T, R> implements Flow.Subscriber<T>, Flow.Subscription {
+        private final Flow.Subscriber<? super R> downstream;
+        private final ArrayDeque<R> ready = new ArrayDeque<>();
+        private final Consumer<R> emit = ready::add;
+        private Flow.Subscription upstream;
+        private long demand = 0;
+        // a request(1) upstream hasn't been answered yet
+        private boolean pulling = false;
+        private boolean done = false;
+        private Throwable error;
+        private boolean cancelled = false;
+        private boolean emitting = false;
+        private boolean missed = false;
+
+        Operator(Flow.Subscriber<? super R> downstream) {
+            this.downstream = downstream;
+        }
+
+        abstract void accept(T item, Consumer<R> emit);
+
+        void finish(Consumer<R> emit) {
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            synchronized (this) {
+                if (upstream != null) {
+                    subscription.cancel();
+                    return;
+                }
+                upstream = subscription;
+            }
+            downstream.onSubscribe(this);
+            drain();
+        }
+
+        @Override
+        public void onNext(T item) {
+            synchronized (this) {
+                pulling = false;
+                if (cancelled || done) {
+                    return;
+                }
+                accept(item, emit);
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                error = throwable;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                finish(emit);
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                    ready.clear();
+                    error = new IllegalArgumentException("non-positive request " + n);
+                }
+                upstream.cancel();
+            } else {
+                synchronized (this) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                ready.clear();
+            }
+            upstream.cancel();
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (emitting) {
+                    missed = true;
+                    return;
+                }
+                emitting = true;
+            }
+            while (true) {
+                R next = null;
+                boolean terminate = false;
+                boolean pull = false;
+                Throwable failure = null;
+                synchronized (this) {
+                    if (cancelled) {
+                        emitting = false;
+                        return;
+                    }
+                    if (!ready.isEmpty() && demand > 0) {
+                        next = ready.poll();
+                        demand--;
+                    } else if (ready.isEmpty() && done) {
+                        // terminal, nothing is signalled after this
+                        cancelled = true;
+                        terminate = true;
+                        failure = error;
+                    } else if (demand > 0 && !pulling && !done && upstream != null) {
+                        pulling = true;
+                        pull = true;
+                    } else if (missed) {
+                        missed = false;
+                        continue;
+                    } else {
+                        emitting = false;
+                        return;
+                    }
+                }
+                if (next != null) {
+                    downstream.onNext(next);
+                } else if (terminate) {
+                    if (failure != null) {
+                        downstream.onError(failure);
+                    } else {
+                        downstream.onComplete();
+                    }
+                    return;
+                } else if (pull) {
+                    upstream.request(1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.biblequizsoftware;
+
+import java.util.concurrent.TimeUnit;
+
+// relates a device's clock to the host's System.nanoTime().
+//
+// every timestamped packet gives a (device time, host arrival) pair whose difference is the
+// clock offset plus however long the packet took to arrive. the smallest difference within a
+// window is the closest to the true offset, so each window's minimum (less half the smallest
+// round trip seen) becomes an offset sample. a least squares line through the recent samples
+// gives the drift between the two clocks, and is then lowered onto the lowest of them so the
+// mapping follows the quickest deliveries rather than the average one.
+//
+// round trips come from request/reply pairs the host can time itself (config reads, and the
+// device's answer to an OTA request). the ping exchange isn't one: the device pings and the host
+// answers, so nothing comes back for the host to time, but timestamped pings still feed offset
+// samples like any other timestamped packet.
+//
+// the engine resets it for every connect and reconnect, and it resets itself if the device's
+// clock goes backwards (a reboot, or the millisecond counter wrapping).
+public class ClockSync {
+    private static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int HISTORY = 32;
+
+    private final long nanosPerTick;
+    private final long windowNanos;
+
+    // round trip
+    private long srttNanos = 0;
+    private long rttVarNanos = 0;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long rttSamples = 0;
+
+    // raw (host - device) minimum in the current window
+    private long windowStart = 0;
+    private long windowMin = Long.MAX_VALUE;
+    private long windowMinDevice = 0;
+
+    // recent window minima, as (device time, offset)
+    private final long[] historyDevice = new long[HISTORY];
+    private final double[] historyOffset = new double[HISTORY];
+    private long windows = 0;
+
+    // fitted mapping: host = device + offset + drift * (device - reference)
+    private boolean synced = false;
+    private double offsetNanos = 0;
+    private double drift = 0;
+    private long referenceDevice = 0;
+
+    private long lastDeviceNanos = 0;
+    private long samples = 0;
+
+    public ClockSync() {
+        this(1000, DEFAULT_WINDOW_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    // ticksPerSecond is the resolution of the device's timestamps, which are milliseconds today
+    public ClockSync(long ticksPerSecond, long window, TimeUnit unit) {
+        this.nanosPerTick = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    public synchronized void onRoundTrip(long sentNanos, long receivedNanos) {
+        final long rtt = receivedNanos - sentNanos;
+        if (rtt <= 0) {
+            return;
+        }
+        rttSamples++;
+        minRttNanos = Math.min(minRttNanos, rtt);
+        if (srttNanos == 0) {
+            srttNanos = rtt;
+            rttVarNanos = rtt / 2;
+        } else {
+            rttVarNanos += (Math.abs(srttNanos - rtt) - rttVarNanos) / 4;
+            srttNanos += (rtt - srttNanos) / 8;
+        }
+    }
+
+    // forget everything, for a link that may not be to the same device (or the same boot of it)
+    public synchronized void reset() {
+        srttNanos = 0;
+        rttVarNanos = 0;
+        minRttNanos = Long.MAX_VALUE;
+        rttSamples = 0;
+        resetOffset();
+    }
+
+    private void resetOffset() {
+        windowStart = 0;
+        windowMin = Long.MAX_VALUE;
+        windowMinDevice = 0;
+        windows = 0;
+        synced = false;
+        offsetNanos = 0;
+        drift = 0;
+        referenceDevice = 0;
+        lastDeviceNanos = 0;
+        samples = 0;
+    }
+
+    public synchronized void onDeviceTime(int deviceTime, long receivedNanos) {
+        final long deviceNanos = deviceNanos(deviceTime);
+        if (samples > 0 && deviceNanos < lastDeviceNanos) {
+            // the device has restarted its clock, nothing fitted so far applies. the link is the
+            // same, so the round trips stay
+            resetOffset();
+        }
+        lastDeviceNanos = deviceNanos;
+        samples++;
+
+        final long difference = receivedNanos - deviceNanos;
+        if (windowStart == 0) {
+            windowStart = receivedNanos;
+        }
+        if (difference < windowMin) {
+            windowMin = difference;
+            windowMinDevice = deviceNanos;
+        }
+
+        if (windows == 0) {
+            // follow the raw minimum until the first window is in
+            offsetNanos = windowMin - oneWayNanos();
+            referenceDevice = windowMinDevice;
+            synced = true;
+        }
+
+        if (receivedNanos - windowStart >= windowNanos) {
+            commitWindow();
+            windowStart = receivedNanos;
+            windowMin = Long.MAX_VALUE;
+        }
+    }
+
+    private void commitWindow() {
+        final int slot = (int) (windows++ % HISTORY);
+        historyDevice[slot] = windowMinDevice;
+        historyOffset[slot] = windowMin - oneWayNanos();
+
+        final int n = (int) Math.min(windows, HISTORY);
+        if (n < 2) {
+            offsetNanos = historyOffset[slot];
+            referenceDevice = windowMinDevice;
+            return;
+        }
+
+        // fit around the newest sample so the numbers stay small
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        for (int i = 0; i < n; i++) {
+            final double x = historyDevice[i] - windowMinDevice;
+            final double y = historyOffset[i];
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        final double denominator = n * sumXX - sumX * sumX;
+        final double slope = denominator == 0 ? 0 : (n * sumXY - sumX * sumY) / denominator;
+        final double intercept = (sumY - slope * sumX) / n;
+
+        // lower the line until it touches the lowest sample
+        double lowest = 0;
+        for (int i = 0; i < n; i++) {
+            lowest = Math.min(lowest, historyOffset[i] - (intercept + slope * (historyDevice[i] - windowMinDevice)));
+        }
+
+        drift = slope;
+        offsetNanos = intercept + lowest;
+        referenceDevice = windowMinDevice;
+    }
+
+    private double offsetAt(long deviceNanos) {
+        return offsetNanos + drift * (deviceNanos - referenceDevice);
+    }
+
+    private long oneWayNanos() {
+        return minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos / 2;
+    }
+
+    private long deviceNanos(int deviceTime) {
+        return Integer.toUnsignedLong(deviceTime) * nanosPerTick;
+    }
+
+    public synchronized boolean isSynced() {
+        return synced;
+    }
+
+    // host System.nanoTime() at which the device stamped deviceTime
+    public synchronized long toHostNanos(int deviceTime) {
+        final long deviceNanos = deviceNanos(deviceTime);
+        return deviceNanos + Math.round(offsetAt(deviceNanos));
+    }
+
+    public synchronized long getOffsetNanos() {
+        return Math.round(offsetAt(lastDeviceNanos));
+    }
+
+    // parts per million the device clock runs fast (positive) or slow relative to the host
+    public synchronized double getDriftPpm() {
+        return -drift * 1e6;
+    }
+
+    public synchronized long getSmoothedRttNanos() {
+        return srttNanos;
+    }
+
+    public synchronized long getRttVarianceNanos() {
+        return rttVarNanos;
+    }
+
+    public synchronized long getMinRttNanos() {
+        return minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos;
+    }
+
+    public synchronized long getRoundTrips() {
+        return rttSamples;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+}
@@ -0,0 +1,59 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+import java.nio.charset.StandardCharsets;
+
+// maps BT_PACKET_CMD payloads straight to BUZZER_CMD without building a String.
+//
+// every command name is unique in its first two characters, so those index a
+// precomputed table and the remaining bytes are only compared against the one candidate.
+final class CommandDecoder {
+    private static final BUZZER_CMD[] COMMANDS = BUZZER_CMD.values();
+    private static final byte[][] NAMES = new byte[COMMANDS.length][];
+    private static final BUZZER_CMD[] LOOKUP = new BUZZER_CMD[1 << 14];
+
+    static {
+        for (BUZZER_CMD cmd : COMMANDS) {
+            final byte[] name = cmd.name().getBytes(StandardCharsets.US_ASCII);
+            final int index = index(name[0], name[1]);
+            if (LOOKUP[index] != null) {
+                throw new IllegalStateException(cmd + " collides with " + LOOKUP[index]);
+            }
+            NAMES[cmd.ordinal()] = name;
+            LOOKUP[index] = cmd;
+        }
+    }
+
+    private CommandDecoder() {
+    }
+
+    // returns null if the payload isn't a known command
+    static BUZZER_CMD decode(byte[] data, int offset, int length) {
+        if (length < 2) {
+            return null;
+        }
+        final BUZZER_CMD cmd = LOOKUP[index(data[offset], data[offset + 1])];
+        if (cmd == null) {
+            return null;
+        }
+        final byte[] name = NAMES[cmd.ordinal()];
+        if (name.length != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != name[i]) {
+                return null;
+            }
+        }
+        return cmd;
+    }
+
+    static byte[] encode(BUZZER_CMD cmd) {
+        return NAMES[cmd.ordinal()].clone();
+    }
+
+    private static int index(byte first, byte second) {
+        return ((first & 0x7f) << 7) | (second & 0x7f);
+    }
+}
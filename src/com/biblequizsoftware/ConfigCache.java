@@ -0,0 +1,131 @@
+package com.biblequizsoftware;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+// last known config of every device seen, so a box that reconnects is usable before it has
+// answered any config reads.
+//
+// kept as a properties file of <device>.<key>=<value>. device names can contain dots (macOS
+// port names do) but config keys never do, so a key is everything after the last one. the
+// cache is best effort: a file that can't be read or written just means starting empty.
+public class ConfigCache {
+    private static final Path DEFAULT_PATH = Path.of(System.getProperty("user.home"), ".biblequizsoftware", "buzzer-config.properties");
+
+    private static ConfigCache defaultCache;
+
+    private final Path path;
+    private final Properties properties = new Properties();
+    private boolean loaded = false;
+
+    public ConfigCache(Path path) {
+        this.path = path;
+    }
+
+    // ~/.biblequizsoftware/buzzer-config.properties
+    public static synchronized ConfigCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new ConfigCache(DEFAULT_PATH);
+        }
+        return defaultCache;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized Map<String, String> get(String device) {
+        load();
+        final String prefix = device + ".";
+        final Map<String, String> config = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix) && name.indexOf('.', prefix.length()) < 0) {
+                config.put(name.substring(prefix.length()), properties.getProperty(name));
+            }
+        }
+        return config;
+    }
+
+    // whether the device has been seen before
+    public synchronized boolean contains(String device) {
+        load();
+        final String prefix = device + ".";
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix) && name.indexOf('.', prefix.length()) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // merges config into what's cached for the device, saving if anything changed
+    public synchronized void put(String device, Map<String, String> config) {
+        load();
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            final Object previous = properties.setProperty(device + "." + entry.getKey(), entry.getValue());
+            changed |= !Objects.equals(previous, entry.getValue());
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    public synchronized void remove(String device) {
+        load();
+        final String prefix = device + ".";
+        boolean changed = false;
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix) && name.indexOf('.', prefix.length()) < 0) {
+                properties.remove(name);
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            } catch (IOException | IllegalArgumentException ex) {
+                // unreadable, start again
+                properties.clear();
+            }
+        }
+    }
+
+    private void save() {
+        try {
+            final Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            // write the whole file alongside and swap it in, so a crash can't leave half a cache
+            final Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "last known buzzer config");
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            // the cache only saves time on the next connect
+        }
+    }
+}
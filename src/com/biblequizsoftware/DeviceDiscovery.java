@@ -0,0 +1,207 @@
+package com.biblequizsoftware;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// watches for buzzer ports coming and going.
+//
+// enumerating ports can take seconds on a machine with a lot of Bluetooth COM ports, so it's
+// done here on a background thread, polling at a fixed interval. each scan is diffed against
+// the ports already known (by system port name) and only the differences are reported, so a
+// known port keeps the same SerialPort instance for as long as it's present.
+public class DeviceDiscovery implements AutoCloseable {
+    public interface Listener {
+        default void added(SerialPort port) {
+        }
+
+        default void removed(SerialPort port) {
+        }
+    }
+
+    private static final long DEFAULT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    private final long intervalNanos;
+    // the buzzer ports present right now
+    private final Supplier<List<SerialPort>> enumerator;
+    private final ScheduledExecutorService executor;
+    // copied on write, like the engine's listeners
+    private volatile Listener[] listeners = new Listener[0];
+
+    // only touched on the discovery thread
+    private final Map<String, SerialPort> known = new LinkedHashMap<>();
+    private volatile List<SerialPort> devices = List.of();
+    private ScheduledFuture<?> polling;
+
+    private volatile BuzzerManager autoConnect;
+    private volatile Predicate<SerialPort> autoConnectFilter;
+
+    public DeviceDiscovery() {
+        this(DEFAULT_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public DeviceDiscovery(long interval, TimeUnit unit) {
+        this(interval, unit, DeviceDiscovery::buzzerPorts);
+    }
+
+    DeviceDiscovery(long interval, TimeUnit unit, Supplier<List<SerialPort>> enumerator) {
+        this.intervalNanos = unit.toNanos(interval);
+        this.enumerator = enumerator;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "buzzer-discovery");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public synchronized void addListener(Listener listener) {
+        final Listener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(Listener[]::new);
+    }
+
+    // connects every port that turns up and passes the filter to the manager, and disconnects
+    // it again when it goes. to only connect boxes that have been seen before, pass
+    //   port -> ConfigCache.getDefault().contains(port.getSystemPortName())
+    // connecting happens on the discovery thread, so the next scan waits for it
+    public void setAutoConnect(BuzzerManager manager, Predicate<SerialPort> filter) {
+        this.autoConnectFilter = filter;
+        this.autoConnect = manager;
+        if (manager != null) {
+            submit(() -> {
+                for (SerialPort port : known.values()) {
+                    autoConnect(port);
+                }
+            });
+        }
+    }
+
+    // starts polling, with the first scan straight away
+    public synchronized void start() {
+        if (polling == null) {
+            try {
+                polling = executor.scheduleWithFixedDelay(this::scan, 0, intervalNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                // closed
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+        }
+    }
+
+    // scans now rather than waiting for the next poll
+    public Future<?> scanNow() {
+        return submit(this::scan);
+    }
+
+    // the buzzer ports found by the last scan
+    public List<SerialPort> getDevices() {
+        return devices;
+    }
+
+    @Override
+    public void close() {
+        stop();
+        executor.shutdownNow();
+    }
+
+    private Future<?> submit(Runnable task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            return null;
+        }
+    }
+
+    private static List<SerialPort> buzzerPorts() {
+        final List<SerialPort> ports = new ArrayList<>();
+        for (SerialPort port : SerialPort.getCommPorts()) {
+            if (BuzzerEngine.isBuzzerPort(port)) {
+                ports.add(port);
+            }
+        }
+        return ports;
+    }
+
+    private void scan() {
+        final Map<String, SerialPort> found = new LinkedHashMap<>();
+        try {
+            for (SerialPort port : enumerator.get()) {
+                found.put(port.getSystemPortName(), port);
+            }
+        } catch (Exception ex) {
+            // enumeration failed this time, try again next poll
+            return;
+        }
+
+        final List<SerialPort> removed = new ArrayList<>();
+        known.entrySet().removeIf(entry -> {
+            if (found.containsKey(entry.getKey())) {
+                return false;
+            }
+            removed.add(entry.getValue());
+            return true;
+        });
+        final List<SerialPort> added = new ArrayList<>();
+        for (Map.Entry<String, SerialPort> entry : found.entrySet()) {
+            if (known.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                added.add(entry.getValue());
+            }
+        }
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        devices = List.copyOf(known.values());
+
+        for (SerialPort port : removed) {
+            final BuzzerManager manager = autoConnect;
+            if (manager != null) {
+                manager.disconnect(port.getSystemPortName());
+            }
+            for (Listener listener : listeners) {
+                try {
+                    listener.removed(port);
+                } catch (Exception ex) {
+                }
+            }
+        }
+        for (SerialPort port : added) {
+            for (Listener listener : listeners) {
+                try {
+                    listener.added(port);
+                } catch (Exception ex) {
+                }
+            }
+            autoConnect(port);
+        }
+    }
+
+    private void autoConnect(SerialPort port) {
+        final BuzzerManager manager = autoConnect;
+        final Predicate<SerialPort> filter = autoConnectFilter;
+        if (manager != null && (filter == null || filter.test(port))) {
+            manager.connect(port);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.biblequizsoftware;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// what the boxes log (BT_PACKET_LOG), for every engine it's handed to.
+//
+// the serial listener only copies the packet into a bounded ring and goes back to reading, so
+// a box logging flat out costs button presses nothing: when the ring is full the line is
+// dropped and counted rather than waiting. the ring takes any number of producers (one per
+// engine) without locks, each slot carrying a sequence number that says whose turn it is.
+//
+// one background thread drains the ring in batches, decodes the lines and appends them to
+// rotating text files, one line per entry:
+//   <ISO-8601 time>\t<device>\t<device time or 0>\t<message, with \, tab and newlines escaped>
+// the most recent entries are also kept in memory for tail(), listeners see every entry as it's
+// written, and query() reads back whatever has reached the files.
+public class DeviceLog implements AutoCloseable {
+    public record Entry(String device, long epochMillis, int deviceTime, String message) {
+    }
+
+    public static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), ".biblequizsoftware", "logs");
+    public static final int DEFAULT_FILE_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 10;
+
+    private static final String PREFIX = "buzzer-log-";
+    private static final String EXTENSION = ".log";
+    private static final int BATCH = 512;
+    private static final int TAIL = 1000;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // what the listener thread hands over, decoded on the log thread
+    private record Raw(String device, long epochMillis, int deviceTime, byte[] message) {
+    }
+
+    private final Path directory;
+    private final int fileSize;
+    private final int maxFiles;
+
+    private final Raw[] slots;
+    // per slot, equal to the position when it's free to fill and position + 1 once it's filled
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only touched on the log thread
+    private long head = 0;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    private final ArrayDeque<Entry> recent = new ArrayDeque<>();
+    // copied on write
+    private volatile Consumer<Entry>[] listeners = newListeners(0);
+
+    private final Thread writer;
+    private volatile boolean running = true;
+    private BufferedWriter out;
+    private long outBytes;
+
+    public DeviceLog(Path directory) throws IOException {
+        this(directory, 8192, DEFAULT_FILE_SIZE, DEFAULT_MAX_FILES);
+    }
+
+    // maxFiles of 0 keeps everything
+    public DeviceLog(Path directory, int capacity, int fileSize, int maxFiles) throws IOException {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.directory = directory;
+        this.fileSize = fileSize;
+        this.maxFiles = maxFiles;
+        this.slots = new Raw[Integer.highestOneBit(capacity - 1) << 1];
+        this.mask = slots.length - 1;
+        this.sequences = new AtomicLongArray(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            sequences.set(i, i);
+        }
+        Files.createDirectories(directory);
+        this.writer = new Thread(this::run, "buzzer-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<Entry>[] newListeners(int length) {
+        return (Consumer<Entry>[]) new Consumer<?>[length];
+    }
+
+    // called from the serial listener with the body of a BT_PACKET_LOG (without any timestamp),
+    // returns false if it had to be dropped
+    boolean offer(String device, int deviceTime, byte[] data, int offset, int length) {
+        offered.increment();
+        long position = tail.get();
+        while (true) {
+            final int slot = (int) (position & mask);
+            final long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[slot] = new Raw(device, System.currentTimeMillis(), deviceTime, Arrays.copyOfRange(data, offset, offset + length));
+                    // publishes the slot to the log thread
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // a lap behind, the ring is full
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    // called on the log thread with every entry as it's written
+    public synchronized void addListener(Consumer<Entry> listener) {
+        final Consumer<Entry>[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(Consumer<Entry> listener) {
+        final Consumer<Entry>[] updated = newListeners(0);
+        listeners = Arrays.stream(listeners).filter(l -> l != listener).toList().toArray(updated);
+    }
+
+    // the newest entries still held in memory, oldest first, for one device or all (null)
+    public List<Entry> tail(String device, int max) {
+        final List<Entry> result = new ArrayList<>();
+        synchronized (recent) {
+            for (var it = recent.descendingIterator(); it.hasNext() && result.size() < max; ) {
+                final Entry entry = it.next();
+                if (device == null || device.equals(entry.device())) {
+                    result.add(entry);
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    // entries from the files between two wall clock times (epoch millis, inclusive), oldest first
+    public List<Entry> query(String device, long fromMillis, long toMillis, int max) throws IOException {
+        final List<Entry> result = new ArrayList<>();
+        for (Path file : files()) {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null && result.size() < max) {
+                    final Entry entry = parse(line);
+                    if (entry != null && entry.epochMillis() >= fromMillis && entry.epochMillis() <= toMillis
+                            && (device == null || device.equals(entry.device()))) {
+                        result.add(entry);
+                    }
+                }
+            } catch (NoSuchFileException ex) {
+                // rotated away while we were reading
+            }
+        }
+        return result;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getOffered() {
+        return offered.sum();
+    }
+
+    // lines thrown away because the ring was full
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    // writes out whatever is queued, then stops
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final List<Entry> batch = new ArrayList<>(BATCH);
+        while (true) {
+            Raw raw;
+            while (batch.size() < BATCH && (raw = poll()) != null) {
+                batch.add(new Entry(raw.device(), raw.epochMillis(), raw.deviceTime(), decode(raw.message())));
+            }
+            if (batch.isEmpty()) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            write(batch);
+            batch.clear();
+        }
+        closeFile();
+    }
+
+    private Raw poll() {
+        final int slot = (int) (head & mask);
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+        final Raw raw = slots[slot];
+        slots[slot] = null;
+        // free for the producer a lap from now
+        sequences.lazySet(slot, head + slots.length);
+        head++;
+        return raw;
+    }
+
+    private void write(List<Entry> batch) {
+        try {
+            for (Entry entry : batch) {
+                if (out == null || outBytes >= fileSize) {
+                    roll();
+                }
+                final String line = format(entry);
+                out.write(line);
+                out.write('\n');
+                // characters rather than bytes, near enough for deciding when to roll
+                outBytes += line.length() + 1;
+            }
+            out.flush();
+            written.add(batch.size());
+        } catch (IOException ex) {
+            // disk trouble, the entries are still kept in memory and a new file is tried next time
+            closeFile();
+        }
+
+        synchronized (recent) {
+            for (Entry entry : batch) {
+                if (recent.size() == TAIL) {
+                    recent.removeFirst();
+                }
+                recent.addLast(entry);
+            }
+        }
+        for (Consumer<Entry> listener : listeners) {
+            for (Entry entry : batch) {
+                try {
+                    listener.accept(entry);
+                } catch (Exception ex) {
+                }
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        closeFile();
+        final Path file = directory.resolve(PREFIX + System.currentTimeMillis() + EXTENSION);
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        outBytes = Files.size(file);
+        if (maxFiles > 0) {
+            final List<Path> files = files();
+            for (int i = 0; i < files.size() - maxFiles; i++) {
+                Files.deleteIfExists(files.get(i));
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+            }
+            out = null;
+        }
+    }
+
+    // oldest first, the names sort by when they were started
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                final String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(EXTENSION);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // the firmware logs C strings, so anything from the first NUL on and trailing newlines go
+    private static String decode(byte[] message) {
+        int end = 0;
+        while (end < message.length && message[end] != 0) {
+            end++;
+        }
+        while (end > 0 && (message[end - 1] == '\n' || message[end - 1] == '\r')) {
+            end--;
+        }
+        return new String(message, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static String format(Entry entry) {
+        return Instant.ofEpochMilli(entry.epochMillis()) + "\t" + escape(entry.device()) + "\t" + entry.deviceTime() + "\t" + escape(entry.message());
+    }
+
+    private static Entry parse(String line) {
+        final String[] fields = line.split("\t", 4);
+        if (fields.length < 4) {
+            return null;
+        }
+        try {
+            return new Entry(unescape(fields[1]), Instant.parse(fields[0]).toEpochMilli(), Integer.parseInt(fields[2]), unescape(fields[3]));
+        } catch (RuntimeException ex) {
+            // not one of ours
+            return null;
+        }
+    }
+
+    private static String escape(String text) {
+        final StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '\\' -> escaped.append("\\\\");
+                case '\t' -> escaped.append("\\t");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String text) {
+        final StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            switch (text.charAt(++i)) {
+                case 't' -> unescaped.append('\t');
+                case 'n' -> unescaped.append('\n');
+                case 'r' -> unescaped.append('\r');
+                default -> unescaped.append(text.charAt(i));
+            }
+        }
+        return unescaped.toString();
+    }
+}
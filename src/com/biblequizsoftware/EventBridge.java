@@ -0,0 +1,542 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// serves buzzer events to other programs on this machine (scoreboard, video overlay, stats),
+// over plain TCP and, optionally, WebSocket.
+//
+// every event goes out as one JSON line:
+//   {"device":"COM3","cmd":"R1","eventTime":123456,"time":1700000000000}
+// time is the event's place on the host clock in epoch millis, eventTime the device's own clock.
+// the line (and its WebSocket frame) is encoded once and every client is handed a read-only view
+// of the same buffer, so a hundred clients cost a hundred cursors, not a hundred copies.
+//
+// one thread runs a selector over the listening sockets and all clients. events wait for it in a
+// bounded queue, dropped and counted if it ever falls that far behind. each client gets a
+// bounded queue of frames waiting to be written; a client that lets it fill up (stopped reading,
+// or too slow to keep up) is disconnected instead of holding up the others or the engine.
+// clients may send "clear" (a line over TCP, a text message over WebSocket) to clear the buzzers.
+// commands are single frames, a fragmented message is refused with close code 1003.
+// only the loopback interface is listened on.
+public class EventBridge implements BuzzerManager.EventListener, AutoCloseable {
+    public static final int DEFAULT_MAX_QUEUED = 64 * 1024;
+    public static final int DEFAULT_MAX_PENDING = 4096;
+
+    private static final int MAX_INBOUND = 4096;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final byte[] CLEAR = "clear".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xa;
+    private static final int CLOSE_UNSUPPORTED = 1003;
+
+    // one event, encoded for each kind of client
+    private record Frame(ByteBuffer line, ByteBuffer webSocket) {
+    }
+
+    private final Runnable clear;
+    private final int maxQueued;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // events published but not yet handed to the clients
+    private final ArrayBlockingQueue<Frame> frames;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // set while the selector has been woken and hasn't got round to the queues yet
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    // only touched on the bridge thread
+    private final List<Client> clients = new ArrayList<>();
+    private final AtomicInteger clientCount = new AtomicInteger();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder clears = new LongAdder();
+    private final LongAdder clearFailures = new LongAdder();
+
+    // clear runs on the bridge thread and mustn't block, BuzzerEngine.clearBuzzer and
+    // BuzzerManager.clearAll only queue a packet
+    public EventBridge(Runnable clear) throws IOException {
+        this(clear, DEFAULT_MAX_QUEUED);
+    }
+
+    public EventBridge(Runnable clear, int maxQueued) throws IOException {
+        this(clear, maxQueued, DEFAULT_MAX_PENDING);
+    }
+
+    // maxQueued bytes per client, maxPending events waiting for the bridge thread
+    public EventBridge(Runnable clear, int maxQueued, int maxPending) throws IOException {
+        this.clear = clear;
+        this.maxQueued = maxQueued;
+        this.frames = new ArrayBlockingQueue<>(maxPending);
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "buzzer-bridge");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // returns the port actually listened on, pass 0 for any free one
+    public int listen(int port) throws IOException {
+        return bind(port, false);
+    }
+
+    public int listenWebSocket(int port) throws IOException {
+        return bind(port, true);
+    }
+
+    private int bind(int port, boolean webSocket) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+        } catch (IOException ex) {
+            server.close();
+            throw ex;
+        }
+        // channels can only be registered without racing select() from the selector's own thread
+        submit(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, webSocket);
+            } catch (IOException ex) {
+                closeQuietly(server);
+            }
+        });
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void event(BuzzerEvent event) {
+        publish(event.device(), event.cmd(), event.eventTime(), event.hostNanos());
+    }
+
+    // hands the event to every client, never blocks
+    public void publish(String device, BUZZER_CMD cmd, int eventTime, long hostNanos) {
+        if (!running) {
+            return;
+        }
+        final long time = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - hostNanos);
+        final byte[] line = ("{\"device\":\"" + escape(device) + "\",\"cmd\":\"" + cmd + "\",\"eventTime\":" + (eventTime & 0xffffffffL)
+            + ",\"time\":" + time + "}\n").getBytes(StandardCharsets.UTF_8);
+        // the WebSocket message is the line without its newline
+        final ByteBuffer webSocket = encodeFrame(OP_TEXT, line, 0, line.length - 1);
+        if (!frames.offer(new Frame(ByteBuffer.wrap(line).asReadOnlyBuffer(), webSocket.asReadOnlyBuffer()))) {
+            // the bridge thread is stuck, every client misses this one rather than the engine waiting
+            dropped.increment();
+            return;
+        }
+        published.increment();
+        wakeup();
+    }
+
+    public int getClientCount() {
+        return clientCount.get();
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    // events no client was sent because the bridge thread had fallen behind
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // clients disconnected for falling behind
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    public long getClears() {
+        return clears.sum();
+    }
+
+    // clears asked for that threw
+    public long getClearFailures() {
+        return clearFailures.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        wakeup();
+    }
+
+    // one wakeup covers everything queued before the selector gets to it
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Frame frame;
+                while ((frame = frames.poll()) != null) {
+                    broadcast(frame);
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                        continue;
+                    }
+                    final Client client = (Client) key.attachment();
+                    if (key.isWritable()) {
+                        client.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        client.read();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException ex) {
+            // the selector itself failed, nothing more can be served
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+            clients.clear();
+            clientCount.set(0);
+        }
+    }
+
+    private void accept(SelectionKey key) {
+        final SocketChannel channel;
+        try {
+            channel = ((ServerSocketChannel) key.channel()).accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException ex) {
+            return;
+        }
+        final Client client = new Client(channel, (Boolean) key.attachment());
+        try {
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        } catch (IOException ex) {
+            closeQuietly(channel);
+            return;
+        }
+        clients.add(client);
+        clientCount.incrementAndGet();
+    }
+
+    private void broadcast(Frame frame) {
+        // backwards, as clients may be removed along the way
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            final Client client = clients.get(i);
+            if (client.ready) {
+                client.send(client.webSocket ? frame.webSocket().duplicate() : frame.line().duplicate());
+            }
+        }
+    }
+
+    private void onCommand(byte[] data, int offset, int length) {
+        // ignore case and surrounding whitespace
+        while (length > 0 && data[offset + length - 1] <= ' ') {
+            length--;
+        }
+        while (length > 0 && data[offset] <= ' ') {
+            offset++;
+            length--;
+        }
+        if (length != CLEAR.length) {
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((data[offset + i] | 0x20) != CLEAR[i]) {
+                return;
+            }
+        }
+        clears.increment();
+        try {
+            clear.run();
+        } catch (Exception ex) {
+            clearFailures.increment();
+        }
+    }
+
+    private final class Client {
+        private final SocketChannel channel;
+        private final boolean webSocket;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_INBOUND);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private SelectionKey key;
+        private int queued = 0;
+        // plain TCP clients are sent events straight away, WebSocket ones after the handshake
+        private boolean ready;
+        private boolean closed = false;
+
+        Client(SocketChannel channel, boolean webSocket) {
+            this.channel = channel;
+            this.webSocket = webSocket;
+            this.ready = !webSocket;
+        }
+
+        void send(ByteBuffer data) {
+            if (queued + data.remaining() > maxQueued) {
+                // too far behind to catch up, better to drop it than everyone else's events
+                evicted.increment();
+                close();
+                return;
+            }
+            final boolean idle = out.isEmpty();
+            out.add(data);
+            queued += data.remaining();
+            if (idle) {
+                flush();
+            }
+        }
+
+        void flush() {
+            try {
+                while (!out.isEmpty()) {
+                    final ByteBuffer head = out.peek();
+                    queued -= channel.write(head);
+                    if (head.hasRemaining()) {
+                        // socket buffer full, carry on once it drains
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    out.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            in.flip();
+            if (!ready) {
+                handshake();
+            }
+            if (ready && !closed) {
+                if (webSocket) {
+                    readFrames();
+                } else {
+                    readLines();
+                }
+            }
+            if (closed) {
+                return;
+            }
+            if (in.position() == 0 && in.limit() == in.capacity()) {
+                // a full buffer that couldn't be parsed, not a client of ours
+                close();
+                return;
+            }
+            in.compact();
+        }
+
+        private void readLines() {
+            final byte[] data = in.array();
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (data[i] == '\n') {
+                    onCommand(data, start, i - start);
+                    start = i + 1;
+                }
+            }
+            in.position(start);
+        }
+
+        private void handshake() {
+            final String request = new String(in.array(), 0, in.limit(), StandardCharsets.ISO_8859_1);
+            final int end = request.indexOf("\r\n\r\n");
+            if (end < 0) {
+                return;
+            }
+            String accept = null;
+            for (String header : request.substring(0, end).split("\r\n")) {
+                final int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().toLowerCase(Locale.ROOT).equals("sec-websocket-key")) {
+                    accept = acceptKey(header.substring(colon + 1).trim());
+                }
+            }
+            if (accept == null) {
+                close();
+                return;
+            }
+            in.position(end + 4);
+            ready = true;
+            send(ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+                + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        // client frames are always masked, and kept small here as they're only ever commands
+        private void readFrames() {
+            final byte[] data = in.array();
+            while (!closed && in.remaining() >= 6) {
+                final int at = in.position();
+                final int opcode = data[at] & 0x0f;
+                if ((data[at] & 0x80) == 0 || opcode == OP_CONTINUATION) {
+                    // a fragmented message, which no command needs
+                    send(encodeFrame(OP_CLOSE, new byte[] {(byte) (CLOSE_UNSUPPORTED >> 8), (byte) CLOSE_UNSUPPORTED}, 0, 2));
+                    close();
+                    return;
+                }
+                int length = data[at + 1] & 0x7f;
+                int header = 2;
+                if (length == 126) {
+                    if (in.remaining() < 8) {
+                        return;
+                    }
+                    length = (data[at + 2] & 0xff) << 8 | data[at + 3] & 0xff;
+                    header = 4;
+                } else if (length == 127 || (data[at + 1] & 0x80) == 0) {
+                    close();
+                    return;
+                }
+                if (header + 4 + length > in.capacity()) {
+                    close();
+                    return;
+                }
+                if (in.remaining() < header + 4 + length) {
+                    return;
+                }
+                final int mask = at + header;
+                final int payload = mask + 4;
+                for (int i = 0; i < length; i++) {
+                    data[payload + i] ^= data[mask + (i & 3)];
+                }
+                in.position(payload + length);
+                switch (opcode) {
+                    case OP_TEXT -> onCommand(data, payload, length);
+                    case OP_PING -> send(encodeFrame(OP_PONG, data, payload, length));
+                    case OP_CLOSE -> {
+                        send(encodeFrame(OP_CLOSE, data, payload, Math.min(length, 2)));
+                        close();
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            clients.remove(this);
+            clientCount.decrementAndGet();
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    // unmasked, as the server sends them
+    private static ByteBuffer encodeFrame(int opcode, byte[] data, int offset, int length) {
+        final int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        final ByteBuffer frame = ByteBuffer.allocate(header + length);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length < 65536) {
+            frame.put((byte) 126);
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(length);
+        }
+        frame.put(data, offset, length);
+        return frame.flip();
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            // every JDK has SHA-1
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String escape(String text) {
+        final StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ex) {
+        }
+    }
+}
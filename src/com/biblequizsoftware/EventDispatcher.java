@@ -0,0 +1,260 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import com.biblequizsoftware.BuzzerEngine.BuzzerCallback;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// optional stage between the serial listener and application code.
+//
+// wraps a BuzzerCallback so it can be handed to a BuzzerEngine in its place: the listener
+// thread only packs (cmd, timestamp) into a long and drops it into a bounded ring, and a
+// consumer thread drains the ring into the real callback. the ring has a single producer
+// (the engine's listener thread), the only contended field being the head, which the producer
+// may also advance when it has to throw away the oldest entry.
+//
+// neither dropping policy ever drops a CLEAR, every round boundary after it would be wrong: with
+// a CLEAR oldest in the ring a new press is dropped instead, and a new CLEAR waits for room.
+public class EventDispatcher implements BuzzerCallback, AutoCloseable {
+    public enum OverflowPolicy {
+        // wait for the consumer to make room, the listener thread stalls while the queue is full
+        BLOCK,
+        // throw away the oldest queued event to make room for the new one
+        DROP_OLDEST,
+        // fold a repeat of the newest queued command into it, otherwise drop the oldest
+        COALESCE
+    }
+
+    private static final BUZZER_CMD[] COMMANDS = BUZZER_CMD.values();
+    private static final int CLEAR = BUZZER_CMD.CLEAR.ordinal();
+
+    private static final int SPINS = 100;
+
+    private final BuzzerCallback target;
+    private final OverflowPolicy policy;
+    private final long[] ring;
+    private final int mask;
+
+    // next slot to consume, and next slot to fill
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final Thread consumer;
+    private volatile boolean consumerParked = false;
+    private volatile boolean running = true;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder callbackErrors = new LongAdder();
+    private volatile long maxDepth = 0;
+    // the engine's, once this has been handed to one
+    private volatile BuzzerMetrics metrics;
+
+    public EventDispatcher(BuzzerCallback target, int capacity, OverflowPolicy policy) {
+        this(target, capacity, policy, r -> {
+            final Thread t = new Thread(r, "buzzer-dispatch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // pass Thread.ofVirtual().factory() on a JDK with virtual threads to drain on one of those
+    public EventDispatcher(BuzzerCallback target, int capacity, OverflowPolicy policy, ThreadFactory threadFactory) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.target = target;
+        this.policy = policy;
+        this.ring = new long[Integer.highestOneBit(capacity - 1) << 1];
+        this.mask = ring.length - 1;
+        this.consumer = threadFactory.newThread(this::drain);
+        this.consumer.start();
+    }
+
+    @Override
+    public void action(BUZZER_CMD cmd, int timestamp) {
+        offered.increment();
+        final long event = ((long) cmd.ordinal() << 32) | (timestamp & 0xffffffffL);
+        final long t = tail.get();
+
+        long h = head.get();
+        if (t - h >= ring.length) {
+            switch (policy) {
+                case BLOCK -> awaitRoom(t);
+                case COALESCE -> {
+                    if ((int) (ring[(int) ((t - 1) & mask)] >>> 32) == cmd.ordinal()) {
+                        // same command as the newest queued event, which has the earlier timestamp
+                        coalesced.increment();
+                        return;
+                    }
+                    if (!makeRoom(t, cmd)) {
+                        return;
+                    }
+                }
+                case DROP_OLDEST -> {
+                    if (!makeRoom(t, cmd)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        ring[(int) (t & mask)] = event;
+        // a full volatile write, so the check of consumerParked below can't be reordered ahead of it
+        tail.set(t + 1);
+
+        final long depth = t + 1 - head.get();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void awaitRoom(long t) {
+        final long start = System.nanoTime();
+        int spins = 0;
+        while (t - head.get() >= ring.length && running) {
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+        blockedNanos.add(System.nanoTime() - start);
+        // only still full if we were closed while waiting
+        dropOldest(t);
+    }
+
+    // drops the oldest queued event unless it's a CLEAR, returns false if the new event has to
+    // be dropped instead
+    private boolean makeRoom(long t, BUZZER_CMD cmd) {
+        long h;
+        while (t - (h = head.get()) >= ring.length) {
+            final long oldest = ring[(int) (h & mask)];
+            if (head.get() != h) {
+                // the consumer took it while we looked
+                continue;
+            }
+            if ((int) (oldest >>> 32) == CLEAR) {
+                if (cmd != BUZZER_CMD.CLEAR) {
+                    dropped.increment();
+                    return false;
+                }
+                awaitRoom(t);
+                return true;
+            }
+            if (head.compareAndSet(h, h + 1)) {
+                dropped.increment();
+            }
+        }
+        return true;
+    }
+
+    private void dropOldest(long t) {
+        long h;
+        while (t - (h = head.get()) >= ring.length) {
+            if (head.compareAndSet(h, h + 1)) {
+                dropped.increment();
+            }
+        }
+    }
+
+    private void drain() {
+        int idle = 0;
+        while (running || head.get() != tail.get()) {
+            final long h = head.get();
+            if (h == tail.get()) {
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                consumerParked = true;
+                if (h == tail.get() && running) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                consumerParked = false;
+                continue;
+            }
+            idle = 0;
+
+            final long event = ring[(int) (h & mask)];
+            // the producer may have dropped this slot while we were reading it
+            if (!head.compareAndSet(h, h + 1)) {
+                continue;
+            }
+
+            delivered.increment();
+            try {
+                target.action(COMMANDS[(int) (event >>> 32)], (int) event);
+            } catch (Exception ex) {
+                callbackErrors.increment();
+                final BuzzerMetrics engineMetrics = metrics;
+                if (engineMetrics != null) {
+                    engineMetrics.callbackError();
+                }
+            }
+        }
+    }
+
+    // stops the consumer once everything already queued has been delivered
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    // callback failures are also counted in these, BuzzerEngine hands over its own
+    void setMetrics(BuzzerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public int getDepth() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public long getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getOffered() {
+        return offered.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    // exceptions thrown by the callback
+    public long getCallbackErrors() {
+        return callbackErrors.sum();
+    }
+}
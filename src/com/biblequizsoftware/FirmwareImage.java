@@ -0,0 +1,162 @@
+package com.biblequizsoftware;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+// read-only firmware image split into OTA packets.
+//
+// the file is memory-mapped rather than read onto the heap, and the offset and checksum of
+// every packet is worked out once when the image is opened, so (re)sending a packet is just
+// a copy out of the mapping. all reads are absolute, which makes one image safe to share
+// between any number of concurrent transfers.
+final class FirmwareImage implements TransferImage {
+    // images with at least this many packets have their table built in parallel
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    // the device requests packets by an unsigned 16 bit index
+    private static final int MAX_PACKETS = 1 << 16;
+
+    private static final ConcurrentHashMap<Key, WeakReference<FirmwareImage>> openImages = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final ByteBuffer data;
+    private final int size;
+    private final int packetSize;
+    private final int packetCount;
+    private final int[] offsets;
+    private final short[] checksums;
+    private volatile String hash;
+
+    private FirmwareImage(String name, ByteBuffer data, int packetSize) {
+        if (packetSize <= 0) {
+            throw new IllegalArgumentException("invalid packet size " + packetSize);
+        }
+        this.name = name;
+        this.data = data;
+        this.size = data.limit();
+        this.packetSize = packetSize;
+        this.packetCount = (size + packetSize - 1) / packetSize;
+        if (packetCount > MAX_PACKETS) {
+            throw new IllegalArgumentException(name + " needs " + packetCount + " packets, at most " + MAX_PACKETS + " can be addressed");
+        }
+        this.offsets = new int[packetCount];
+        this.checksums = new short[packetCount];
+
+        IntStream indexes = IntStream.range(0, packetCount);
+        if (packetCount >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> {
+            final int offset = i * packetSize;
+            offsets[i] = offset;
+            checksums[i] = checksum(data, offset, Math.min(packetSize, size - offset));
+        });
+    }
+
+    // maps the file, reusing an image that is already open for the same unchanged file
+    static FirmwareImage open(Path path, int packetSize) throws IOException {
+        final Path realPath = path.toRealPath();
+        final Key key = new Key(realPath, Files.size(realPath), Files.getLastModifiedTime(realPath).toMillis(), packetSize);
+
+        final WeakReference<FirmwareImage> ref = openImages.get(key);
+        FirmwareImage image = ref != null ? ref.get() : null;
+        if (image != null) {
+            return image;
+        }
+
+        try (FileChannel channel = FileChannel.open(realPath, StandardOpenOption.READ)) {
+            image = new FirmwareImage(realPath.toString(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), packetSize);
+        }
+        openImages.values().removeIf(r -> r.get() == null);
+        openImages.put(key, new WeakReference<>(image));
+        return image;
+    }
+
+    static FirmwareImage wrap(byte[] data, int packetSize) {
+        return new FirmwareImage("<memory>", ByteBuffer.wrap(data).asReadOnlyBuffer(), packetSize);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    @Override
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    // SHA-256 of the contents, worked out on first use
+    String getHash() {
+        String result = hash;
+        if (result == null) {
+            try {
+                final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(data.duplicate().clear());
+                result = HexFormat.of().formatHex(digest.digest());
+            } catch (NoSuchAlgorithmException ex) {
+                // every JVM has SHA-256
+                throw new IllegalStateException(ex);
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    int packetOffset(int index) {
+        return offsets[index];
+    }
+
+    int packetLength(int index) {
+        return Math.min(packetSize, size - offsets[index]);
+    }
+
+    short packetChecksum(int index) {
+        return checksums[index];
+    }
+
+    // from the table, the copy doesn't need summing again
+    @Override
+    public short packetChecksum(int index, byte[] data, int offset, int length) {
+        return checksums[index];
+    }
+
+    // copies the packet's bytes into dst, returning how many were copied
+    @Override
+    public int copyPacket(int index, byte[] dst, int dstOffset) {
+        final int len = packetLength(index);
+        data.get(offsets[index], dst, dstOffset, len);
+        return len;
+    }
+
+    // same sum as BuzzerProtocol.checksum, read from the mapping
+    private static short checksum(ByteBuffer data, int offset, int len) {
+        int csum = 0;
+        for (int i = offset; i < offset + len; i++) {
+            csum += (int)data.get(i) & 0xff;
+        }
+        return (short)csum;
+    }
+
+    private record Key(Path path, long size, long modified, int packetSize) {
+    }
+}
@@ -0,0 +1,201 @@
+package com.biblequizsoftware;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// flashes one firmware image onto any number of buzzer boxes at once.
+//
+// every box gets an engine and an OTA session of its own (own window, pacing and retries) while
+// they all read packets out of the same mapped image. a few boxes are updated at a time, since a
+// Bluetooth adapter only keeps so many links busy, and each gets a time limit so the whole job
+// finishes in bounded time however many boxes misbehave. a box that drops off part way is
+// resumed by its engine (see OtaProgress), one that runs out of time can be resumed by running
+// it again.
+public class FleetUpdate {
+    public enum Outcome {
+        COMPLETE,
+        CONNECT_FAILED,
+        TIMED_OUT,
+        CANCELLED
+    }
+
+    public record DeviceResult(String device, Outcome outcome, int bytes, long elapsedNanos) {
+        public long bytesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+    }
+
+    public record Result(List<DeviceResult> devices, long elapsedNanos) {
+        public int completed() {
+            return (int) devices.stream().filter(d -> d.outcome() == Outcome.COMPLETE).count();
+        }
+
+        // firmware delivered across the whole fleet per second of the job
+        public long bytesPerSecond() {
+            long bytes = 0;
+            for (DeviceResult device : devices) {
+                if (device.outcome() == Outcome.COMPLETE) {
+                    bytes += device.bytes();
+                }
+            }
+            return elapsedNanos <= 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d devices updated in %.1f s, %d KB/s overall",
+                completed(), devices.size(), elapsedNanos / 1e9, bytesPerSecond() / 1024);
+        }
+    }
+
+    // called from the update threads
+    public interface Listener {
+        default void started(String device) {
+        }
+
+        default void progress(String device, int packetsAcked, int packetCount, long bytesPerSecond) {
+        }
+
+        default void finished(DeviceResult result) {
+        }
+    }
+
+    // classic Bluetooth runs at most seven active links per adapter
+    private static final int DEFAULT_CONCURRENCY = 7;
+    private static final long DEFAULT_DEVICE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final FirmwareImage image;
+    private final List<Listener> listeners = new ArrayList<>();
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long deviceTimeoutNanos = DEFAULT_DEVICE_TIMEOUT_NANOS;
+    private volatile ExecutorService executor;
+
+    public FleetUpdate(Path firmware) throws IOException {
+        this(FirmwareImage.open(firmware, OtaTransfer.PACKET_SIZE));
+    }
+
+    FleetUpdate(FirmwareImage image) {
+        this.image = image;
+    }
+
+    // how many boxes are updated at the same time
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    // how long one box gets, from connecting to the last packet
+    public void setDeviceTimeout(long timeout, TimeUnit unit) {
+        this.deviceTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public Result run(SerialPort... ports) throws InterruptedException {
+        return run(Arrays.stream(ports).map(SerialPortTransport::new).toList());
+    }
+
+    // updates every device, returning once each has finished one way or another
+    public Result run(List<? extends SerialTransport> transports) throws InterruptedException {
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(concurrency, r -> {
+            final Thread t = new Thread(r, "buzzer-fleet-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor = pool;
+
+        final long start = System.nanoTime();
+        final List<Future<DeviceResult>> futures = new ArrayList<>();
+        for (SerialTransport transport : transports) {
+            futures.add(pool.submit(() -> update(transport)));
+        }
+        pool.shutdown();
+
+        final List<DeviceResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            DeviceResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (ExecutionException | CancellationException ex) {
+                result = new DeviceResult(transports.get(i).getName(), Outcome.CANCELLED, 0, 0);
+            }
+            results.add(result);
+        }
+        return new Result(results, System.nanoTime() - start);
+    }
+
+    // stops every update in progress, anything not yet started is skipped
+    public void cancel() {
+        final ExecutorService pool = executor;
+        if (pool != null) {
+            // the queued ones have to be cancelled too, or run() waits on them for ever
+            for (Runnable queued : pool.shutdownNow()) {
+                if (queued instanceof Future<?> future) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private DeviceResult update(SerialTransport transport) {
+        final String device = transport.getName();
+        final long start = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void otaProgress(int packetsAcked, int packetCount, long bytesPerSecond) {
+                for (Listener listener : listeners) {
+                    listener.progress(device, packetsAcked, packetCount, bytesPerSecond);
+                }
+            }
+
+            @Override
+            public void otaComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+                done.countDown();
+            }
+        });
+
+        Outcome outcome;
+        if (Thread.currentThread().isInterrupted()) {
+            outcome = Outcome.CANCELLED;
+        } else if (!engine.connect(transport)) {
+            outcome = Outcome.CONNECT_FAILED;
+        } else {
+            for (Listener listener : listeners) {
+                listener.started(device);
+            }
+            engine.startFirmwareUpdate(image);
+            try {
+                final long remaining = deviceTimeoutNanos - (System.nanoTime() - start);
+                outcome = done.await(remaining, TimeUnit.NANOSECONDS) ? Outcome.COMPLETE : Outcome.TIMED_OUT;
+            } catch (InterruptedException ex) {
+                outcome = Outcome.CANCELLED;
+            }
+            // an unfinished update keeps its progress on disk for next time
+            engine.cancelFirmwareUpdate();
+            engine.disconnect();
+        }
+
+        final DeviceResult result = new DeviceResult(device, outcome, outcome == Outcome.COMPLETE ? image.getSize() : 0, System.nanoTime() - start);
+        for (Listener listener : listeners) {
+            listener.finished(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,292 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BuzzerCallback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.biblequizsoftware.BuzzerProtocol.HEADER_SIZE;
+import static com.biblequizsoftware.BuzzerProtocol.putHeader;
+
+// plays journalled traffic back through BuzzerEngine's receive path (framer, processPacket,
+// callback and listeners), for load and regression testing without any devices.
+//
+// every journalled session (one connection to one device) gets an engine and a thread of its
+// own, optionally several copies of each to multiply the load. a session's times are all taken
+// against its first segment's clock pair, sessions only meet on the wall clock. frames keep
+// their original spacing (real time), are sped up or slowed down (scaled), or are fed as fast
+// as the engines take them. the engines are never connected, so nothing they would send back
+// goes anywhere.
+public class JournalReplay {
+    public enum Mode {
+        REAL_TIME,
+        SCALED,
+        AS_FAST_AS_POSSIBLE
+    }
+
+    public record Result(
+        // engines run, one for each session and copy
+        int devices,
+        long frames,
+        long bytes,
+        long events,
+        long elapsedNanos,
+        // how long each read took to go through the engine, callbacks included
+        LatencyHistogram.Snapshot feedLatency,
+        // how far behind schedule frames were fed, not recorded when going as fast as possible
+        LatencyHistogram.Snapshot lateness) {
+
+        public double eventsPerSecond() {
+            return perSecond(events);
+        }
+
+        public double framesPerSecond() {
+            return perSecond(frames);
+        }
+
+        public double bytesPerSecond() {
+            return perSecond(bytes);
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d devices, %d frames, %d events in %.3f s: %.0f events/s, %.0f frames/s, feed p50 %d ns p99 %d ns, late p99 %d ns",
+                devices, frames, events, elapsedNanos / 1e9, eventsPerSecond(), framesPerSecond(),
+                feedLatency.p50Nanos(), feedLatency.p99Nanos(), lateness.p99Nanos());
+        }
+    }
+
+    // one session's inbound frames, back to back, with when each was received
+    private static final class DeviceTraffic {
+        final String device;
+        // the first segment's, hostNanos of later ones are on the same clock
+        final WireJournal.Header origin;
+        final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        final List<Integer> offsetList = new ArrayList<>();
+        final List<Long> timeList = new ArrayList<>();
+        byte[] data;
+        int[] offsets;
+        long[] times;
+
+        DeviceTraffic(WireJournal.Header origin) {
+            this.device = origin.device();
+            this.origin = origin;
+        }
+
+        void add(long epochNanos, short type, byte[] payload) {
+            final byte[] header = new byte[HEADER_SIZE];
+            putHeader(header, 0, type, payload.length);
+            offsetList.add(frames.size());
+            timeList.add(epochNanos);
+            frames.writeBytes(header);
+            frames.writeBytes(payload);
+        }
+
+        void seal() {
+            data = frames.toByteArray();
+            offsets = new int[offsetList.size() + 1];
+            times = new long[timeList.size()];
+            for (int i = 0; i < times.length; i++) {
+                offsets[i] = offsetList.get(i);
+                times[i] = timeList.get(i);
+            }
+            offsets[times.length] = data.length;
+        }
+    }
+
+    private final BuzzerCallback callback;
+    private final List<BuzzerEngine.Listener> listeners = new ArrayList<>();
+    private final Map<Long, DeviceTraffic> bySession = new LinkedHashMap<>();
+
+    private Mode mode = Mode.AS_FAST_AS_POSSIBLE;
+    private double speed = 1;
+    private int copies = 1;
+    private int readSize = 4096;
+    // set just before the replay threads are let go
+    private volatile long startNanos;
+
+    // callback is called from every replay thread at once, so must be thread safe
+    public JournalReplay(BuzzerCallback callback) {
+        this.callback = callback;
+    }
+
+    // speed only applies to SCALED, 2 plays back twice as fast
+    public void setMode(Mode mode, double speed) {
+        if (mode == Mode.SCALED && !(speed > 0)) {
+            throw new IllegalArgumentException("invalid speed " + speed);
+        }
+        this.mode = mode;
+        this.speed = mode == Mode.SCALED ? speed : 1;
+    }
+
+    // replays every device this many times over, each copy with its own engine and thread
+    public void setCopies(int copies) {
+        this.copies = Math.max(1, copies);
+    }
+
+    // the most handed to an engine in one go when going as fast as possible
+    public void setReadSize(int readSize) {
+        this.readSize = Math.max(1, readSize);
+    }
+
+    // added to every engine
+    public void addListener(BuzzerEngine.Listener listener) {
+        listeners.add(listener);
+    }
+
+    // loads a journal segment, or every segment in a directory
+    public void load(Path path) throws IOException {
+        final List<Path> segments = Files.isDirectory(path) ? WireJournal.segments(path) : List.of(path);
+        for (Path segment : segments) {
+            final WireJournal.Header header = WireJournal.header(segment);
+            final DeviceTraffic traffic = bySession.computeIfAbsent(header.session(), session -> new DeviceTraffic(header));
+            WireJournal.read(segment, record -> {
+                if (record.direction() == WireJournal.IN) {
+                    traffic.add(traffic.origin.toEpochNanos(record.hostNanos()), record.type(), record.payload());
+                }
+            });
+        }
+    }
+
+    public List<String> getDevices() {
+        final List<String> devices = new ArrayList<>();
+        for (DeviceTraffic traffic : bySession.values()) {
+            if (!devices.contains(traffic.device)) {
+                devices.add(traffic.device);
+            }
+        }
+        return devices;
+    }
+
+    public int getSessions() {
+        return bySession.size();
+    }
+
+    public Result run() throws InterruptedException {
+        final List<DeviceTraffic> loaded = new ArrayList<>();
+        long firstNanos = Long.MAX_VALUE;
+        for (DeviceTraffic traffic : bySession.values()) {
+            traffic.seal();
+            if (traffic.times.length > 0) {
+                loaded.add(traffic);
+                firstNanos = Math.min(firstNanos, traffic.times[0]);
+            }
+        }
+
+        final LongAdder events = new LongAdder();
+        final BuzzerCallback counting = (cmd, timestamp) -> {
+            events.increment();
+            if (callback != null) {
+                callback.action(cmd, timestamp);
+            }
+        };
+        final LatencyHistogram feedLatency = new LatencyHistogram();
+        final LatencyHistogram lateness = new LatencyHistogram();
+        final LongAdder frames = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        final CountDownLatch ready = new CountDownLatch(loaded.size() * copies);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        final long origin = firstNanos;
+        for (DeviceTraffic traffic : loaded) {
+            for (int copy = 0; copy < copies; copy++) {
+                final BuzzerEngine engine = new BuzzerEngine(counting);
+                for (BuzzerEngine.Listener listener : listeners) {
+                    engine.addListener(listener);
+                }
+                final Thread thread = new Thread(() -> {
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    replay(traffic, engine, origin, startNanos, feedLatency, lateness);
+                    frames.add(traffic.times.length);
+                    bytes.add(traffic.data.length);
+                }, "replay-" + traffic.device + "-" + copy);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        ready.await();
+        startNanos = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsed = System.nanoTime() - startNanos;
+        return new Result(threads.size(), frames.sum(), bytes.sum(), events.sum(), elapsed, feedLatency.snapshot(), lateness.snapshot());
+    }
+
+    private void replay(DeviceTraffic traffic, BuzzerEngine engine, long origin, long start, LatencyHistogram feedLatency, LatencyHistogram lateness) {
+        final int count = traffic.times.length;
+        int next = 0;
+        while (next < count) {
+            int end;
+            if (mode == Mode.AS_FAST_AS_POSSIBLE) {
+                // as many whole frames as fit in a read, the framer copes with any split but this is what a port does
+                end = next + 1;
+                while (end < count && traffic.offsets[end + 1] - traffic.offsets[next] <= readSize) {
+                    end++;
+                }
+            } else {
+                final long due = start + (long) ((traffic.times[next] - origin) / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                final long now = System.nanoTime();
+                lateness.record(now - due);
+                // everything else that's due by now goes in the same read
+                end = next + 1;
+                while (end < count && start + (long) ((traffic.times[end] - origin) / speed) <= now) {
+                    end++;
+                }
+            }
+
+            final long before = System.nanoTime();
+            engine.receive(traffic.data, traffic.offsets[next], traffic.offsets[end] - traffic.offsets[next]);
+            feedLatency.record(System.nanoTime() - before);
+            next = end;
+        }
+    }
+
+    // replays a journal directory: JournalReplay <dir> [realtime|fast|<speed>] [copies]
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("usage: JournalReplay <journal dir or segment> [realtime|fast|<speed>] [copies]");
+            return;
+        }
+        final JournalReplay replay = new JournalReplay(null);
+        replay.load(Path.of(args[0]));
+        if (args.length > 1) {
+            switch (args[1]) {
+                case "realtime" -> replay.setMode(Mode.REAL_TIME, 1);
+                case "fast" -> replay.setMode(Mode.AS_FAST_AS_POSSIBLE, 1);
+                default -> replay.setMode(Mode.SCALED, Double.parseDouble(args[1]));
+            }
+        }
+        if (args.length > 2) {
+            replay.setCopies(Integer.parseInt(args[2]));
+        }
+        System.out.println("replaying " + replay.getSessions() + " sessions of " + replay.getDevices());
+        System.out.println(replay.run());
+    }
+}
@@ -0,0 +1,135 @@
+package com.biblequizsoftware;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// which packets of a firmware image a device has acknowledged, kept on disk so an update that's
+// interrupted (link dropped, app closed) can carry on from where it got to.
+//
+// one small memory-mapped file per device and image, named after the device and the image's
+// hash: a header and then a bit per packet. marking a packet writes straight into the mapping,
+// so there is nothing to flush on the transfer's hot path and a crash of the app loses nothing.
+// the file is marked complete and deleted once the update completes. the mapping can outlive
+// the delete (there's no unmapping it), and on Windows the delete fails while it does, so a
+// file that stays behind has its magic cleared and reads as no progress.
+//
+// layout, little endian:
+//   "BQOP" version:u16 packetSize:u16 size:u32 packetCount:u32 then a bit per packet
+final class OtaProgress implements AutoCloseable {
+    static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), ".biblequizsoftware", "ota");
+
+    private static final int MAGIC = 'B' | 'Q' << 8 | 'O' << 16 | 'P' << 24;
+    private static final short VERSION = 1;
+    private static final int HEADER = 16;
+    private static final String EXTENSION = ".bqo";
+
+    private final Path path;
+    private final int packetCount;
+    private final FileChannel channel;
+    private final MappedByteBuffer bits;
+    private int ackedCount = 0;
+    private boolean closed = false;
+
+    private OtaProgress(Path path, FileChannel channel, MappedByteBuffer bits, int packetCount) {
+        this.path = path;
+        this.channel = channel;
+        this.bits = bits;
+        this.packetCount = packetCount;
+        for (int i = 0; i < packetCount; i++) {
+            if (isAcked(i)) {
+                ackedCount++;
+            }
+        }
+    }
+
+    // opens the device's progress with the image, starting empty if there isn't any (or what's
+    // there doesn't match)
+    static OtaProgress open(Path directory, String device, FirmwareImage image) throws IOException {
+        Files.createDirectories(directory);
+        final Path path = directory.resolve(device.replaceAll("[^A-Za-z0-9._]", "_") + "-" + image.getHash().substring(0, 16) + EXTENSION);
+        final int length = HEADER + (image.getPacketCount() + 7) / 8;
+
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final boolean matches = channel.size() == length;
+            final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (!matches || map.getInt(0) != MAGIC || map.getShort(4) != VERSION || (map.getShort(6) & 0xffff) != image.getPacketSize()
+                    || map.getInt(8) != image.getSize() || map.getInt(12) != image.getPacketCount()) {
+                for (int i = 0; i < length; i++) {
+                    map.put(i, (byte) 0);
+                }
+                map.putInt(0, MAGIC);
+                map.putShort(4, VERSION);
+                map.putShort(6, (short) image.getPacketSize());
+                map.putInt(8, image.getSize());
+                map.putInt(12, image.getPacketCount());
+            }
+            return new OtaProgress(path, channel, map, image.getPacketCount());
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    boolean isAcked(int index) {
+        return (bits.get(HEADER + (index >>> 3)) & 1 << (index & 7)) != 0;
+    }
+
+    void setAcked(int index, boolean acked) {
+        if (closed || index < 0 || index >= packetCount || isAcked(index) == acked) {
+            return;
+        }
+        final int at = HEADER + (index >>> 3);
+        bits.put(at, (byte) (bits.get(at) ^ 1 << (index & 7)));
+        ackedCount += acked ? 1 : -1;
+    }
+
+    int getAckedCount() {
+        return ackedCount;
+    }
+
+    // forgets everything, for when the device has started over
+    void reset() {
+        for (int i = HEADER; i < bits.limit(); i++) {
+            bits.put(i, (byte) 0);
+        }
+        ackedCount = 0;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    // the update went through, nothing left to resume
+    void delete() {
+        if (!closed) {
+            bits.putInt(0, 0);
+        }
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            // still mapped, it's empty as far as open() is concerned, try again on the way out
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        bits.force();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+        }
+    }
+}
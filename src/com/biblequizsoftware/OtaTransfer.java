@@ -0,0 +1,481 @@
+package com.biblequizsoftware;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+
+// windowed image transfer, for firmware (OTA_*) and SPIFFS images (SPIFFS_*) alike.
+//
+// the device asks for packets by index with BT_PACKET_OTA_REQ (SPIFFS_REQ), the lowest index it asks for
+// being the first one it is still missing. rather than sending one packet per round trip,
+// up to 'window' packets past that point are kept in flight. the window grows while
+// requests come back clean and halves when the device has to ask for a packet we already
+// sent, and packets are paced across the measured round trip so a burst doesn't overrun
+// the radio. all sending happens on the transfer's own thread, never on the serial
+// listener or the EDT. a request that goes unanswered is retried off a deadline on the shared
+// timer wheel, re-armed with every request.
+//
+// with an OtaProgress the packets the device has acknowledged are also kept on disk. when there
+// is progress to resume, the transfer starts with a bare request instead of OTA_START: a device
+// still part way through the update answers it with what it's missing and the transfer carries
+// on from there, skipping anything already acknowledged. no answer (or a device that stops
+// answering for good) means it has started over, and so does the transfer.
+//
+// frames are assembled in buffers owned by the transfer and written straight to the port, the
+// payload and checksum coming from the image: a FirmwareImage's mapping and packet table, or a
+// SpiffsImage read and summed as it goes.
+//
+// a device that never asks for packets (SPIFFS on firmware that doesn't list spiffs_req in its
+// caps) gets the image the way it always has: START, every packet once in order, END. with nothing
+// coming back there's nothing to resume or retry, so a link that drops part way fails it.
+class OtaTransfer {
+    // the packet types a transfer is made of, req is NO_REQUEST for an unpaced stream
+    record PacketTypes(short start, short msg, short end, short req) {
+        boolean paced() {
+            return req != NO_REQUEST;
+        }
+    }
+
+    static final short NO_REQUEST = -1;
+
+    static final PacketTypes FIRMWARE = new PacketTypes(BT_PACKET_OTA_START, BT_PACKET_OTA_MSG, BT_PACKET_OTA_END, BT_PACKET_OTA_REQ);
+    static final PacketTypes SPIFFS = new PacketTypes(BT_PACKET_SPIFFS_START, BT_PACKET_SPIFFS_MSG, BT_PACKET_SPIFFS_END, BT_PACKET_SPIFFS_REQ);
+    static final PacketTypes SPIFFS_STREAM = new PacketTypes(BT_PACKET_SPIFFS_START, BT_PACKET_SPIFFS_MSG, BT_PACKET_SPIFFS_END, NO_REQUEST);
+
+    @FunctionalInterface
+    interface FrameWriter {
+        // the frame is reused once this returns
+        void writeFrame(byte[] frame, int length);
+    }
+
+    interface Listener {
+        void progress(int packetsAcked, int packetCount, long bytesPerSecond);
+        void complete(int bytes, long elapsedNanos, long bytesPerSecond);
+
+        // time from sending an OTA request to the device answering it
+        default void roundTrip(long sentNanos, long receivedNanos) {
+        }
+
+        // time from the device's request arriving to the requested packets and the next request going out
+        default void turnaround(long nanos, int packets) {
+        }
+
+        // the image couldn't be read, the transfer has stopped
+        default void failed(Exception ex) {
+        }
+    }
+
+    static final int PACKET_SIZE = 100;
+
+    private static final long START_DELAY_MS = 500;
+    private static final long RESUME_PROBE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // requests without an answer before assuming the device has lost the update
+    private static final int MAX_UNANSWERED = 3;
+    private static final int RESUME_PROBES = 2;
+
+    private final FrameWriter writer;
+    private final Listener listener;
+    private final TransferImage image;
+    private final PacketTypes types;
+    private final int packetCount;
+
+    // [type][len][index][data][checksum]. on the heap rather than direct: writeBytes only takes
+    // a byte[], so a direct frame would be copied out again for every write (OtaPacketizeBenchmark)
+    private final byte[] frame;
+    // [type][len][value], with len 0 for a bare request
+    private final byte[] control = new byte[HEADER_SIZE + 4];
+
+    private final ExecutorService executor;
+    private final TimerWheel timer = TimerWheel.shared();
+    private final OtaProgress progress;
+
+    private int minWindow = 1;
+    private int maxWindow = 64;
+    private long minGapNanos = TimeUnit.MICROSECONDS.toNanos(200);
+    private long maxGapNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private long retryNanos = TimeUnit.SECONDS.toNanos(5);
+
+    // everything below is only touched on the transfer thread
+    private int window;
+    private double backoff = 1.0;
+    private long srttNanos = 0;
+    private int nextToSend = 0;
+    private int acked = 0;
+    private long startNanos;
+    private long lastRequestNanos;
+    private volatile boolean finished = false;
+    private TimerWheel.Timeout retryTimeout;
+    private boolean probing = false;
+    private int unanswered = 0;
+    // the link is down, nothing sent arrives so nothing going unanswered means anything
+    private boolean linkDown = false;
+
+    // read by a stream while it's sending, it can't wait for its turn on the transfer thread
+    private volatile boolean cancelled = false;
+    private final AtomicInteger outages = new AtomicInteger();
+
+    OtaTransfer(FrameWriter writer, FirmwareImage image, Listener listener) {
+        this(writer, image, FIRMWARE, listener, null);
+    }
+
+    // progress may be null, it's closed (or deleted, once complete) when the transfer finishes
+    OtaTransfer(FrameWriter writer, TransferImage image, PacketTypes types, Listener listener, OtaProgress progress) {
+        this.writer = writer;
+        this.image = image;
+        this.types = types;
+        this.listener = listener;
+        this.packetCount = image.getPacketCount();
+        this.frame = new byte[HEADER_SIZE + 2 + image.getPacketSize() + 2];
+        this.window = minWindow;
+        this.progress = progress;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "buzzer-ota");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void setWindow(int minWindow, int maxWindow) {
+        if (minWindow < 1 || maxWindow < minWindow) {
+            throw new IllegalArgumentException("invalid window " + minWindow + ".." + maxWindow);
+        }
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.window = minWindow;
+    }
+
+    void setPacing(long minGap, long maxGap, TimeUnit unit) {
+        this.minGapNanos = unit.toNanos(minGap);
+        this.maxGapNanos = Math.max(minGapNanos, unit.toNanos(maxGap));
+    }
+
+    void setRetryTimeout(long timeout, TimeUnit unit) {
+        this.retryNanos = unit.toNanos(timeout);
+    }
+
+    int getPacketCount() {
+        return packetCount;
+    }
+
+    TransferImage getImage() {
+        return image;
+    }
+
+    void start() {
+        executor.execute(() -> guarded(() -> {
+            startNanos = System.nanoTime();
+            if (!types.paced()) {
+                // started while the link is down, linkRestored sends it
+                if (!linkDown) {
+                    stream();
+                }
+            } else if (progress != null && progress.getAckedCount() > 0) {
+                probing = true;
+                requestMore();
+            } else {
+                begin();
+            }
+        }));
+    }
+
+    void cancel() {
+        cancelled = true;
+        submit(this::finish);
+    }
+
+    // the link has dropped, hold the retries until it's back so an outage can't run them out
+    // and start the update (and its saved progress) over
+    void linkLost() {
+        outages.incrementAndGet();
+        submit(() -> {
+            linkDown = true;
+            if (retryTimeout != null) {
+                retryTimeout.cancel();
+            }
+        });
+    }
+
+    // the link has just come back, ask straight away rather than waiting out the retry
+    void linkRestored() {
+        submit(() -> {
+            if (!finished) {
+                // whatever went unanswered before it went down doesn't count either
+                linkDown = false;
+                unanswered = 0;
+                if (!types.paced()) {
+                    stream();
+                    return;
+                }
+                requestMore();
+            }
+        });
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    // called from the serial listener with the body of a BT_PACKET_OTA_REQ, the data is
+    // copied out before handing it to the transfer thread
+    void onRequest(byte[] data, int offset, int length) {
+        final int[] requested = new int[length / 2];
+        for (int i = 0; i < requested.length; i++) {
+            requested[i] = readShortLE(data, offset + i * 2);
+        }
+        final long receivedNanos = System.nanoTime();
+        submit(() -> handleRequest(requested, receivedNanos));
+    }
+
+    private void submit(Runnable task) {
+        if (finished) {
+            return;
+        }
+        try {
+            executor.execute(() -> guarded(task));
+        } catch (RejectedExecutionException ex) {
+            // raced with the transfer finishing, nothing left to do
+        }
+    }
+
+    // an image that can't be read (a file gone missing mid upload) ends the transfer
+    private void guarded(Runnable task) {
+        try {
+            task.run();
+        } catch (UncheckedIOException ex) {
+            if (!finished) {
+                finish();
+                listener.failed(ex.getCause());
+            }
+        }
+    }
+
+    // from the top, for a device that has nothing of this image
+    private void begin() {
+        if (progress != null) {
+            progress.reset();
+        }
+        acked = 0;
+        nextToSend = 0;
+        window = minWindow;
+        writeControl(types.start(), image.getSize());
+
+        // give the device time to get ready for the packets
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(START_DELAY_MS));
+
+        topUp();
+        requestMore();
+    }
+
+    private void stream() {
+        final int outage = outages.get();
+        writeControl(types.start(), image.getSize());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(START_DELAY_MS));
+
+        for (int packet = 0; packet < packetCount; packet++) {
+            if (cancelled) {
+                return;
+            }
+            if (outages.get() != outage) {
+                finish();
+                listener.failed(new IOException("link dropped part way through, the device can't ask for what it missed"));
+                return;
+            }
+            // the bulk lane holds this until the writer takes it, that's all the pacing it gets
+            sendPacket(packet);
+            LockSupport.parkNanos(minGapNanos);
+            acked = packet + 1;
+            if (acked % maxWindow == 0) {
+                listener.progress(acked, packetCount, bytesPerSecond((long) acked * image.getPacketSize(), System.nanoTime() - startNanos));
+            }
+        }
+        writeControl(types.end(), image.getSize());
+        final long elapsed = System.nanoTime() - startNanos;
+        listener.complete(image.getSize(), elapsed, bytesPerSecond(image.getSize(), elapsed));
+        finish();
+    }
+
+    private void handleRequest(int[] requested, long receivedNanos) {
+        if (finished || requested.length == 0) {
+            return;
+        }
+        unanswered = 0;
+        if (probing) {
+            // still mid update, what it asks for is where to carry on from
+            probing = false;
+            nextToSend = Math.min(requested[0], packetCount);
+        }
+
+        final long rtt = receivedNanos - lastRequestNanos;
+        srttNanos = srttNanos == 0 ? rtt : srttNanos + (rtt - srttNanos) / 8;
+        listener.roundTrip(lastRequestNanos, receivedNanos);
+
+        if (requested[0] >= packetCount) {
+            // we've sent everything!!
+            acked = packetCount;
+            writeControl(types.end(), image.getSize());
+            if (progress != null) {
+                progress.delete();
+            }
+            final long elapsed = System.nanoTime() - startNanos;
+            listener.complete(image.getSize(), elapsed, bytesPerSecond(image.getSize(), elapsed));
+            finish();
+            return;
+        }
+        recordProgress(requested);
+
+        // anything asked for that has already gone out was lost on the way
+        boolean lost = false;
+        for (int packet : requested) {
+            if (packet < nextToSend) {
+                lost = true;
+                break;
+            }
+        }
+        if (lost) {
+            window = Math.max(minWindow, window / 2);
+            backoff = Math.min(16.0, backoff * 2.0);
+        } else {
+            window = Math.min(maxWindow, window + 1);
+            backoff = Math.max(1.0, backoff * 0.75);
+        }
+
+        acked = Math.max(acked, requested[0]);
+
+        int sent = 0;
+        for (int packet : requested) {
+            if (packet < packetCount) {
+                sendPacket(packet);
+                nextToSend = Math.max(nextToSend, packet + 1);
+                pace();
+                sent++;
+            }
+        }
+        sent += topUp();
+        requestMore();
+        listener.turnaround(lastRequestNanos - receivedNanos, sent);
+
+        listener.progress(acked, packetCount, bytesPerSecond((long) acked * image.getPacketSize(), System.nanoTime() - startNanos));
+    }
+
+    // the device lists the lowest packets it's missing in order, so everything below the last
+    // one listed that isn't listed has arrived
+    private void recordProgress(int[] requested) {
+        if (progress == null) {
+            return;
+        }
+        int next = 0;
+        final int last = Math.min(requested[requested.length - 1], packetCount);
+        for (int i = Math.min(acked, requested[0]); i < last; i++) {
+            final boolean missing = next < requested.length && requested[next] == i;
+            if (missing) {
+                next++;
+            }
+            progress.setAcked(i, !missing);
+        }
+        progress.setAcked(last, false);
+    }
+
+    private int topUp() {
+        int sent = 0;
+        while (nextToSend < packetCount && nextToSend - acked < window) {
+            final int packet = nextToSend++;
+            if (progress != null && progress.isAcked(packet)) {
+                // got there before the interruption
+                continue;
+            }
+            sendPacket(packet);
+            pace();
+            sent++;
+        }
+        return sent;
+    }
+
+    private void requestMore() {
+        putHeader(control, 0, types.req(), 0);
+        writer.writeFrame(control, HEADER_SIZE);
+        lastRequestNanos = System.nanoTime();
+
+        if (retryTimeout != null) {
+            retryTimeout.cancel();
+        }
+        if (linkDown) {
+            // linkRestored asks again
+            return;
+        }
+        // the wheel thread only hands the retry over, it's decided and sent from here
+        retryTimeout = timer.schedule(() -> submit(this::checkRetry), timeoutNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private long timeoutNanos() {
+        return probing ? Math.min(RESUME_PROBE_NANOS, retryNanos) : retryNanos;
+    }
+
+    private void checkRetry() {
+        // a request may have gone out since the timeout fired
+        if (finished || linkDown || System.nanoTime() - lastRequestNanos < timeoutNanos()) {
+            return;
+        }
+        if (++unanswered >= (probing ? RESUME_PROBES : MAX_UNANSWERED)) {
+            // nothing left of the update on the device (it rebooted, say), start it over
+            probing = false;
+            unanswered = 0;
+            begin();
+            return;
+        }
+        // the request or its reply went missing, treat it like a loss and ask again
+        window = Math.max(minWindow, window / 2);
+        requestMore();
+    }
+
+    private void pace() {
+        // spread the window over roughly a quarter of the round trip, slowed down after losses
+        long gap = srttNanos == 0 ? minGapNanos : (long) (srttNanos / 4 / window * backoff);
+        gap = Math.max(minGapNanos, Math.min(maxGapNanos, gap));
+        LockSupport.parkNanos(gap);
+    }
+
+    private void finish() {
+        finished = true;
+        if (retryTimeout != null) {
+            retryTimeout.cancel();
+        }
+        if (progress != null) {
+            progress.close();
+        }
+        image.release();
+        executor.shutdown();
+    }
+
+    private void sendPacket(int packetIndex) {
+        writer.writeFrame(frame, encodePacket(image, types.msg(), packetIndex, frame));
+    }
+
+    // builds the OTA_MSG frame for one packet into frame, returning its length
+    static int encodePacket(TransferImage image, int packetIndex, byte[] frame) {
+        return encodePacket(image, BT_PACKET_OTA_MSG, packetIndex, frame);
+    }
+
+    static int encodePacket(TransferImage image, short type, int packetIndex, byte[] frame) {
+        final int len = image.copyPacket(packetIndex, frame, HEADER_SIZE + 2);
+        putHeader(frame, 0, type, len + 4);
+        putShortLE(frame, HEADER_SIZE, packetIndex);
+        putShortLE(frame, HEADER_SIZE + 2 + len, image.packetChecksum(packetIndex, frame, HEADER_SIZE + 2, len));
+        return HEADER_SIZE + len + 4;
+    }
+
+    private void writeControl(short type, int value) {
+        putIntLE(control, putHeader(control, 0, type, 4), value);
+        writer.writeFrame(control, control.length);
+    }
+
+    private static long bytesPerSecond(long bytes, long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
@@ -0,0 +1,227 @@
+package com.biblequizsoftware;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+
+// everything an engine sends goes through here, and is written to the transport by one thread.
+//
+// frames are sorted into three lanes by packet type: pings and commands (CLEAR) first, then
+// control traffic (config, OTA start/request/end), then bulk OTA data. whatever small frames are
+// waiting are copied into a single buffer and written together, since jSerialComm has no
+// gathering write. a config write replaces any queued write of the same key, so dragging the
+// volume only sends where it ended up.
+//
+// callers never wait for the transport, except bulk senders: a bulk frame is borrowed rather
+// than copied and the sender waits until it has been taken, which also stops a firmware
+// upload from queueing up faster than the link can carry it.
+final class OutboundQueue {
+    interface WriteListener {
+        // data holds the frames just written, and is only valid for the duration of the call
+        void written(byte[] data, int length, int frames);
+    }
+
+    // the most that's gathered into one write, a frame bigger than this goes on its own
+    private static final int BATCH_SIZE = 1024;
+    private static final long CLOSE_WAIT_MILLIS = 250;
+
+    private final SerialTransport transport;
+    private final WriteListener listener;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private final Condition bulkTaken = lock.newCondition();
+
+    private final ArrayDeque<byte[]> urgent = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> control = new ArrayDeque<>();
+    private byte[] bulk;
+    private int bulkLength;
+
+    private byte[] batch = new byte[BATCH_SIZE];
+    private final Thread writer;
+    private boolean running = true;
+
+    private long coalesced = 0;
+
+    OutboundQueue(SerialTransport transport, WriteListener listener) {
+        this.transport = transport;
+        this.listener = listener;
+        this.writer = new Thread(this::run, "buzzer-writer-" + transport.getName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // queues length bytes of frame, which may hold several packets (they're queued as one by
+    // the type of the first). only bulk frames are written from the caller's array
+    void write(byte[] frame, int length) {
+        if (length < HEADER_SIZE) {
+            return;
+        }
+        final int type = readShortLE(frame, 0) & ~BT_TIMESTAMP;
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            switch (type) {
+                case BT_PACKET_BQT_PING, BT_PACKET_CMD -> urgent.add(Arrays.copyOf(frame, length));
+                case BT_PACKET_OTA_MSG, BT_PACKET_SPIFFS_MSG -> {
+                    while (bulk != null && running) {
+                        bulkTaken.awaitUninterruptibly();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    bulk = frame;
+                    bulkLength = length;
+                    work.signal();
+                    while (bulk == frame && running) {
+                        bulkTaken.awaitUninterruptibly();
+                    }
+                    return;
+                }
+                case BT_PACKET_CONFIG_WRITE -> {
+                    final byte[] copy = Arrays.copyOf(frame, length);
+                    if (removeConfigWrite(copy)) {
+                        coalesced++;
+                    }
+                    control.add(copy);
+                }
+                default -> control.add(Arrays.copyOf(frame, length));
+            }
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // drops a queued write of the same key, the new one goes at the back so it still follows
+    // anything (a read of that key, say) queued since
+    private boolean removeConfigWrite(byte[] frame) {
+        final int keyLength = configKeyLength(frame);
+        if (keyLength < 0) {
+            return false;
+        }
+        for (Iterator<byte[]> it = control.iterator(); it.hasNext(); ) {
+            final byte[] queued = it.next();
+            if (readShortLE(queued, 0) == BT_PACKET_CONFIG_WRITE && configKeyLength(queued) == keyLength
+                    && Arrays.equals(queued, HEADER_SIZE, HEADER_SIZE + keyLength, frame, HEADER_SIZE, HEADER_SIZE + keyLength)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // length of the key in a single key=value packet, -1 if it isn't one
+    private static int configKeyLength(byte[] frame) {
+        if (frame.length != HEADER_SIZE + readShortLE(frame, 2)) {
+            return -1;
+        }
+        for (int i = HEADER_SIZE; i < frame.length; i++) {
+            if (frame[i] == '=') {
+                return i - HEADER_SIZE;
+            }
+        }
+        return -1;
+    }
+
+    // stops taking frames, and gives the writer a moment to send what's already queued
+    void close() {
+        lock.lock();
+        try {
+            running = false;
+            // the sender is about to get its array back
+            bulk = null;
+            work.signal();
+            bulkTaken.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getDepth() {
+        lock.lock();
+        try {
+            return urgent.size() + control.size() + (bulk != null ? 1 : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            int length = 0;
+            int frames = 0;
+            lock.lock();
+            try {
+                while (running && urgent.isEmpty() && control.isEmpty() && bulk == null) {
+                    work.awaitUninterruptibly();
+                }
+                if (urgent.isEmpty() && control.isEmpty() && bulk == null) {
+                    return;
+                }
+
+                byte[] next;
+                while ((next = take(length)) != null) {
+                    length = append(next, next.length, length);
+                    frames++;
+                }
+                // at most one bulk frame per write, so anything urgent gets in between them
+                if (bulk != null && fits(bulkLength, length)) {
+                    length = append(bulk, bulkLength, length);
+                    frames++;
+                    bulk = null;
+                    bulkTaken.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                transport.write(batch, length);
+                listener.written(batch, length, frames);
+            } catch (Exception ex) {
+                // the transport is going away, the engine will notice
+            }
+        }
+    }
+
+    // the next urgent or control frame if it fits in what's left of the batch
+    private byte[] take(int length) {
+        final ArrayDeque<byte[]> lane = !urgent.isEmpty() ? urgent : control;
+        final byte[] next = lane.peek();
+        return next != null && fits(next.length, length) ? lane.poll() : null;
+    }
+
+    // anything fits in an empty batch, it just won't share the write
+    private static boolean fits(int frameLength, int length) {
+        return length == 0 || length + frameLength <= BATCH_SIZE;
+    }
+
+    private int append(byte[] frame, int frameLength, int length) {
+        if (length + frameLength > batch.length) {
+            batch = Arrays.copyOf(batch, length + frameLength);
+        }
+        System.arraycopy(frame, 0, batch, length, frameLength);
+        return length + frameLength;
+    }
+}
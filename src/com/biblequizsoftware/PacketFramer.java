@@ -0,0 +1,150 @@
+package com.biblequizsoftware;
+
+import static com.biblequizsoftware.BuzzerProtocol.HEADER_SIZE;
+import static com.biblequizsoftware.BuzzerProtocol.readShortLE;
+
+// streaming framer for the buzzer wire format: [type:u16 LE][len:u16 LE][payload:len]
+//
+// complete packets are handed to the handler as slices of either the caller's read buffer
+// or the internal ring, so steady-state parsing does not allocate. only fragments that
+// straddle a read are copied into the ring, which grows (power of two) when a packet
+// larger than the current capacity shows up.
+class PacketFramer {
+    @FunctionalInterface
+    interface PacketHandler {
+        // data is only valid for the duration of the call, copy it if it needs to be kept
+        void onPacket(short type, byte[] data, int offset, int length);
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final PacketHandler handler;
+
+    private byte[] ring = new byte[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+
+    // how far feed() has got through the caller's buffer when parsing it directly
+    private int parsed = 0;
+
+    // used only when a buffered packet wraps around the end of the ring
+    private byte[] scratch = new byte[0];
+
+    PacketFramer(PacketHandler handler) {
+        this.handler = handler;
+    }
+
+    void feed(byte[] data) {
+        feed(data, 0, data.length);
+    }
+
+    void feed(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+
+        if (size == 0) {
+            // nothing pending, parse straight out of the caller's buffer
+            final int end = offset + length;
+            parsed = offset;
+            try {
+                parse(data, end);
+            } finally {
+                // keep whatever follows the last packet handed over, even if the handler threw
+                // part way through, so nothing is delivered twice
+                if (parsed < end) {
+                    append(data, parsed, end - parsed);
+                }
+            }
+            return;
+        }
+
+        append(data, offset, length);
+        drain();
+    }
+
+    // drop any partial packet, e.g. after the port has been closed
+    void reset() {
+        head = 0;
+        size = 0;
+    }
+
+    int pending() {
+        return size;
+    }
+
+    private void parse(byte[] data, int end) {
+        while (end - parsed >= HEADER_SIZE) {
+            final int packetLen = readShortLE(data, parsed + 2);
+            if (end - parsed < HEADER_SIZE + packetLen) {
+                break;
+            }
+            final short type = (short) readShortLE(data, parsed);
+            final int payload = parsed + HEADER_SIZE;
+            // consume before dispatching, as drain() does
+            parsed = payload + packetLen;
+            handler.onPacket(type, data, payload, packetLen);
+        }
+    }
+
+    private void drain() {
+        final int mask = ring.length - 1;
+        while (size >= HEADER_SIZE) {
+            final int packetLen = (ring[(head + 2) & mask] & 0xff) | ((ring[(head + 3) & mask] & 0xff) << 8);
+            if (size < HEADER_SIZE + packetLen) {
+                break;
+            }
+            final short type = (short) ((ring[head] & 0xff) | ((ring[(head + 1) & mask] & 0xff) << 8));
+            final int payload = (head + HEADER_SIZE) & mask;
+
+            byte[] src = ring;
+            int srcOffset = payload;
+            if (payload + packetLen > ring.length) {
+                // the payload wraps, stitch it together in the scratch buffer
+                if (scratch.length < packetLen) {
+                    scratch = new byte[Math.max(packetLen, scratch.length * 2)];
+                }
+                final int first = ring.length - payload;
+                System.arraycopy(ring, payload, scratch, 0, first);
+                System.arraycopy(ring, 0, scratch, first, packetLen - first);
+                src = scratch;
+                srcOffset = 0;
+            }
+
+            // consume before dispatching so a throwing handler can't cause a redelivery
+            head = (head + HEADER_SIZE + packetLen) & mask;
+            size -= HEADER_SIZE + packetLen;
+            if (size == 0) {
+                head = 0;
+            }
+            handler.onPacket(type, src, srcOffset, packetLen);
+        }
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (size + length > ring.length) {
+            grow(size + length);
+        }
+        final int mask = ring.length - 1;
+        final int tail = (head + size) & mask;
+        final int first = Math.min(length, ring.length - tail);
+        System.arraycopy(data, offset, ring, tail, first);
+        if (first < length) {
+            System.arraycopy(data, offset + first, ring, 0, length - first);
+        }
+        size += length;
+    }
+
+    private void grow(int required) {
+        int capacity = ring.length;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+        final byte[] bigger = new byte[capacity];
+        final int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, bigger, 0, first);
+        System.arraycopy(ring, 0, bigger, first, size - first);
+        ring = bigger;
+        head = 0;
+    }
+}
@@ -0,0 +1,86 @@
+package com.biblequizsoftware;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+// a buzzer box on a jSerialComm port (Bluetooth SPP or USB serial)
+public class SerialPortTransport implements SerialTransport {
+    private final SerialPort port;
+    private final byte[] readBuffer = new byte[4096];
+
+    public SerialPortTransport(SerialPort port) {
+        this.port = port;
+    }
+
+    public SerialPort getPort() {
+        return port;
+    }
+
+    @Override
+    public String getName() {
+        return port.getSystemPortName();
+    }
+
+    @Override
+    public String getDescription() {
+        return port.getPortDescription();
+    }
+
+    @Override
+    public boolean open(Receiver receiver) {
+        if (!port.openPort(10, 10, 10)) {
+            return false;
+        }
+
+        // read into a reused buffer rather than having jSerialComm allocate a fresh array for every event
+        port.addDataListener(new SerialPortDataListener() {
+            @Override
+            public int getListeningEvents() {
+                return SerialPort.LISTENING_EVENT_DATA_AVAILABLE
+                    | SerialPort.LISTENING_EVENT_FRAMING_ERROR
+                    | SerialPort.LISTENING_EVENT_PARITY_ERROR
+                    | SerialPort.LISTENING_EVENT_FIRMWARE_OVERRUN_ERROR
+                    | SerialPort.LISTENING_EVENT_SOFTWARE_OVERRUN_ERROR;
+            }
+            @Override
+            public void serialEvent(SerialPortEvent event)
+            {
+                if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE) {
+                    receiver.error();
+                    return;
+                }
+                int available;
+                while ((available = port.bytesAvailable()) > 0) {
+                    final int read = port.readBytes(readBuffer, Math.min(available, readBuffer.length));
+                    if (read <= 0) {
+                        break;
+                    }
+                    receiver.received(readBuffer, 0, read);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return port.isOpen();
+    }
+
+    @Override
+    public void write(byte[] data, int length) {
+        port.writeBytes(data, length);
+    }
+
+    @Override
+    public void close() {
+        port.removeDataListener();
+        port.closePort();
+    }
+
+    @Override
+    public String toString() {
+        return port.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package com.biblequizsoftware;
+
+// the byte pipe a BuzzerEngine talks to a buzzer box over.
+//
+// SerialPortTransport is the real thing (a jSerialComm port), VirtualBuzzerDevice is an
+// in-process device for load testing and running without radios.
+public interface SerialTransport {
+    interface Receiver {
+        // called on the transport's own thread, data is only valid for the duration of the call
+        void received(byte[] data, int offset, int length);
+
+        // the link reported a framing/overrun style error, the data around it may be damaged
+        default void error() {
+        }
+    }
+
+    // stable id for the device, the system port name for a real port
+    String getName();
+
+    String getDescription();
+
+    // opens the link and starts handing everything read from it to the receiver
+    boolean open(Receiver receiver);
+
+    boolean isOpen();
+
+    // writes the first length bytes, the array may be reused as soon as this returns
+    void write(byte[] data, int length);
+
+    void close();
+}
@@ -0,0 +1,126 @@
+package com.biblequizsoftware;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// a SPIFFS filesystem image streamed off disk as it's uploaded.
+//
+// unlike a FirmwareImage nothing is mapped or worked out up front: packets are read through a
+// small read-ahead buffer with positional FileChannel reads and checksummed as they're copied
+// out, so an image costs the same 64 KB however big it is. the device asks for packets mostly
+// in order, so the buffer is refilled sequentially and only a packet asked for again from
+// before it costs a seek. not thread safe, it belongs to the one transfer sending it.
+final class SpiffsImage implements TransferImage, AutoCloseable {
+    private static final int READ_AHEAD = 64 * 1024;
+
+    // the device requests packets by an unsigned 16 bit index
+    private static final int MAX_PACKETS = 1 << 16;
+
+    private final String name;
+    private final FileChannel channel;
+    private final int size;
+    private final int packetSize;
+    private final int packetCount;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_AHEAD);
+    // file offset of the start of the buffer, -1 before the first read
+    private long bufferStart = -1;
+
+    private SpiffsImage(String name, FileChannel channel, int size, int packetSize) {
+        this.name = name;
+        this.channel = channel;
+        this.size = size;
+        this.packetSize = packetSize;
+        this.packetCount = (size + packetSize - 1) / packetSize;
+    }
+
+    static SpiffsImage open(Path path, int packetSize) throws IOException {
+        if (packetSize <= 0 || packetSize > READ_AHEAD) {
+            throw new IllegalArgumentException("invalid packet size " + packetSize);
+        }
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        final long size = channel.size();
+        if ((size + packetSize - 1) / packetSize > MAX_PACKETS) {
+            channel.close();
+            throw new IllegalArgumentException(path + " needs " + (size + packetSize - 1) / packetSize + " packets, at most " + MAX_PACKETS + " can be addressed");
+        }
+        return new SpiffsImage(path.toString(), channel, (int) size, packetSize);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    @Override
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    // throws UncheckedIOException if the file can't be read (or has shrunk since it was opened)
+    @Override
+    public int copyPacket(int index, byte[] dst, int dstOffset) {
+        final long position = (long) index * packetSize;
+        final int len = (int) Math.min(packetSize, size - position);
+        if (bufferStart < 0 || position < bufferStart || position + len > bufferStart + buffer.limit()) {
+            fill(position);
+            if (len > buffer.limit()) {
+                throw new UncheckedIOException(new EOFException(name + " is shorter than when it was opened"));
+            }
+        }
+        buffer.get((int) (position - bufferStart), dst, dstOffset, len);
+        return len;
+    }
+
+    @Override
+    public short packetChecksum(int index, byte[] data, int offset, int length) {
+        return BuzzerProtocol.checksum(data, offset, length);
+    }
+
+    // only ever sent once
+    @Override
+    public void release() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    private void fill(long position) {
+        buffer.clear();
+        long at = position;
+        try {
+            while (buffer.hasRemaining() && at < size) {
+                final int read = channel.read(buffer, at);
+                if (read < 0) {
+                    break;
+                }
+                at += read;
+            }
+        } catch (IOException ex) {
+            bufferStart = -1;
+            throw new UncheckedIOException(ex);
+        }
+        buffer.flip();
+        bufferStart = position;
+    }
+}
@@ -0,0 +1,130 @@
+package com.biblequizsoftware;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// one thread's worth of timeouts for every engine: OTA retransmits, ping timeouts and config
+// read retries.
+//
+// a hashed wheel on System.nanoTime. each slot covers one tick, and a timeout lands in the slot
+// its deadline falls in with a count of how many more turns of the wheel it has to wait, so
+// scheduling and cancelling are O(1) however many are pending. new timeouts are handed over
+// through a lock-free queue and only the wheel thread touches the slots. timeouts never fire
+// early, and late by at most a tick plus however long the tasks ahead of them take, so tasks
+// should be short: queue a frame, tell a listener, or hand anything longer to their own thread.
+final class TimerWheel {
+    static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // only touched on the wheel thread
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // false if it has already run or been cancelled
+        boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        boolean isPending() {
+            return state.get() == PENDING;
+        }
+    }
+
+    private static final TimerWheel SHARED = new TimerWheel("buzzer-timer", TimeUnit.MILLISECONDS.toNanos(10), 512);
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] slots;
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    // only touched on the wheel thread
+    private long tick = 0;
+
+    // slots is rounded up to a power of two
+    TimerWheel(String name, long tickNanos, int slots) {
+        this.tickNanos = tickNanos;
+        this.slots = new Timeout[Integer.highestOneBit(Math.max(1, slots) * 2 - 1)];
+        this.mask = this.slots.length - 1;
+        final Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static TimerWheel shared() {
+        return SHARED;
+    }
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        final Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            final long tickEnd = startNanos + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = tickEnd - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            transferIncoming();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (!timeout.isPending()) {
+                continue;
+            }
+            // anything already due goes in the slot about to be expired
+            final long due = Math.max(tick, (timeout.deadline - startNanos) / tickNanos);
+            timeout.rounds = (due - tick) / slots.length;
+            final int slot = (int) (due & mask);
+            timeout.next = slots[slot];
+            slots[slot] = timeout;
+        }
+    }
+
+    private void expire(int slot) {
+        Timeout previous = null;
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            final boolean done = !timeout.isPending() || timeout.rounds-- <= 0;
+            if (done) {
+                if (previous == null) {
+                    slots[slot] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+                if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (Exception ex) {
+                        // one bad task mustn't stop the wheel
+                    }
+                }
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.biblequizsoftware;
+
+// what a windowed transfer sends: an image cut into fixed size packets the device asks for by index
+interface TransferImage {
+    int getSize();
+
+    int getPacketSize();
+
+    int getPacketCount();
+
+    // copies the packet's bytes into dst, returning how many were copied
+    int copyPacket(int index, byte[] dst, int dstOffset);
+
+    // the packet's checksum, its bytes having just been copied to data[offset, offset + length)
+    short packetChecksum(int index, byte[] data, int offset, int length);
+
+    // the transfer sending it has finished, an image shared between transfers ignores this
+    default void release() {
+    }
+}
@@ -0,0 +1,524 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+
+// an in-process buzzer box, connected to the host through the SerialTransport it implements.
+//
+// it plays the device side of the protocol: pings the host, answers CONFIG_READ, applies
+// CONFIG_WRITE, sends timestamped button presses at a configurable rate and takes OTA and SPIFFS
+// images, asking for missing packets with OTA_REQ (SPIFFS_REQ, while caps says so) the way the
+// firmware does. what it sends goes over a simulated link that can lose frames, cut the stream
+// into arbitrary reads and cap the byte rate, so the host side can be load tested and OTA
+// benchmarked without any radios.
+//
+// device state is only touched on the device thread, the link has a thread of its own so the
+// host receives on a thread that isn't its writer's, as it would from a real port.
+public class VirtualBuzzerDevice implements SerialTransport {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private static final BUZZER_CMD[] SEATS = {
+        BUZZER_CMD.R1, BUZZER_CMD.R2, BUZZER_CMD.R3, BUZZER_CMD.Y1, BUZZER_CMD.Y2, BUZZER_CMD.Y3
+    };
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // the link hands over at most this much in one go, like a driver's receive buffer
+    private static final int LINK_BUFFER = 4096;
+
+    private final String name;
+    private final Map<String, String> config = new ConcurrentHashMap<>();
+
+    private volatile double eventsPerSecond = 0;
+    private volatile long pingIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile int maxRead = 0;
+    private volatile double lossToHost = 0;
+    private volatile double lossToDevice = 0;
+    private volatile long linkBytesPerSecond = 0;
+    private volatile double driftPpm = 0;
+    private volatile int otaRequestSize = 16;
+    private volatile long seed = 1;
+    private volatile boolean inRange = true;
+
+    private volatile boolean open = false;
+    // bumped by every open and close, a link thread stops as soon as it isn't its own
+    private volatile int generation = 0;
+    private ScheduledExecutorService device;
+    private Thread deviceThread;
+    private Thread link;
+    private final LinkedBlockingQueue<byte[]> toHost = new LinkedBlockingQueue<>();
+
+    // everything below is only touched on the device thread
+    private final PacketFramer framer = new PacketFramer(this::processPacket);
+    private SplittableRandom random;
+    private long openNanos;
+    private int bootMillis;
+    private long lastTickNanos;
+    private long lastPingNanos;
+    private double eventsDue;
+
+    private Upload ota;
+    private Upload spiffs;
+    private volatile byte[] firmware;
+    private volatile byte[] spiffsImage;
+
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder pingsAnswered = new LongAdder();
+    private final LongAdder clears = new LongAdder();
+    private final LongAdder framesLost = new LongAdder();
+    private final LongAdder otaPackets = new LongAdder();
+    private final LongAdder otaCorrupt = new LongAdder();
+
+    public VirtualBuzzerDevice() {
+        this("VIRTUAL" + NEXT_ID.incrementAndGet());
+    }
+
+    public VirtualBuzzerDevice(String name) {
+        this.name = name;
+        config.put(BuzzerEngine.CONFIG_VERSION, "virtual");
+        config.put(BuzzerEngine.CONFIG_VOLUME, "50");
+        config.put(BuzzerEngine.CONFIG_RGB_TIMER, "1");
+        config.put(BuzzerEngine.CONFIG_QM_TIMER, "0");
+        // set caps to "" to play firmware that takes SPIFFS as an unpaced stream
+        config.put(BuzzerEngine.CONFIG_CAPABILITIES, BuzzerEngine.CAPABILITY_SPIFFS_REQ);
+    }
+
+    // random button presses from the six seats, 0 for none
+    public void setEventRate(double eventsPerSecond) {
+        this.eventsPerSecond = Math.max(0, eventsPerSecond);
+    }
+
+    // how often the device pings the host, 0 to stop pinging
+    public void setPingInterval(long interval, TimeUnit unit) {
+        this.pingIntervalNanos = unit.toNanos(interval);
+    }
+
+    // cut what reaches the host into reads of 1..maxRead bytes, 0 to hand over whole bursts
+    public void setFragmentation(int maxRead) {
+        this.maxRead = Math.max(0, maxRead);
+    }
+
+    // chance of losing each frame, in each direction
+    public void setLoss(double toHost, double toDevice) {
+        this.lossToHost = toHost;
+        this.lossToDevice = toDevice;
+    }
+
+    // cap on bytes per second from the device to the host, 0 for no limit
+    public void setLinkRate(long bytesPerSecond) {
+        this.linkBytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    // how far the device's clock runs fast (positive) or slow against the host's
+    public void setClockDrift(double ppm) {
+        this.driftPpm = ppm;
+    }
+
+    // how many missing packets each OTA_REQ lists
+    public void setOtaRequestSize(int packets) {
+        this.otaRequestSize = Math.max(1, packets);
+    }
+
+    // out of range nothing gets through in either direction and opening fails, like a box
+    // carried out of Bluetooth range or switched off
+    public void setInRange(boolean inRange) {
+        this.inRange = inRange;
+    }
+
+    // seeds the presses, the loss and the fragmentation, taken at open
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setConfig(String key, String value) {
+        config.put(key, value);
+    }
+
+    public Map<String, String> getConfig() {
+        return new HashMap<>(config);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getDescription() {
+        return "BQS_BUZZER (virtual)";
+    }
+
+    @Override
+    public synchronized boolean open(Receiver receiver) {
+        if (open || !inRange) {
+            return false;
+        }
+        this.random = new SplittableRandom(seed);
+        this.openNanos = System.nanoTime();
+        // the device has been up for a while, and 0 would read as no timestamp
+        this.bootMillis = 1000 + random.nextInt(1_000_000);
+        this.lastTickNanos = openNanos;
+        this.lastPingNanos = openNanos;
+        this.eventsDue = 0;
+        framer.reset();
+        toHost.clear();
+
+        open = true;
+        final int current = ++generation;
+        device = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "virtual-buzzer-" + name);
+            t.setDaemon(true);
+            deviceThread = t;
+            return t;
+        });
+        device.scheduleAtFixedRate(this::tick, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+
+        final long linkSeed = seed * 31 + 17;
+        link = new Thread(() -> deliver(current, receiver, new SplittableRandom(linkSeed)), "virtual-link-" + name);
+        link.setDaemon(true);
+        link.start();
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void write(byte[] data, int length) {
+        if (!open) {
+            return;
+        }
+        final byte[] copy = Arrays.copyOf(data, length);
+        onDevice(() -> {
+            if (!inRange || lossToDevice > 0 && random.nextDouble() < lossToDevice) {
+                framesLost.increment();
+                return;
+            }
+            framer.feed(copy, 0, copy.length);
+        });
+    }
+
+    // waits for the old threads so the next open starts clean, unless it's called from one of
+    // them (a host closing from its receive callback)
+    @Override
+    public void close() {
+        final ScheduledExecutorService oldDevice;
+        final Thread oldDeviceThread;
+        final Thread oldLink;
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            generation++;
+            oldDevice = device;
+            oldDeviceThread = deviceThread;
+            oldLink = link;
+            oldDevice.shutdownNow();
+            oldLink.interrupt();
+            toHost.clear();
+        }
+        final Thread current = Thread.currentThread();
+        try {
+            if (current != oldLink) {
+                oldLink.join();
+            }
+            if (current != oldDeviceThread) {
+                oldDevice.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            current.interrupt();
+        }
+    }
+
+    // a button press now, on top of any random ones
+    public void press(BUZZER_CMD cmd) {
+        onDevice(() -> sendCommand(cmd));
+    }
+
+    // a line of the device's log, timestamped like the firmware's
+    public void log(String message) {
+        onDevice(() -> {
+            final byte[] text = message.getBytes(StandardCharsets.UTF_8);
+            final byte[] payload = Arrays.copyOf(text, text.length + 4);
+            putIntLE(payload, text.length, deviceTime());
+            send((short) (BT_PACKET_LOG | BT_TIMESTAMP), payload);
+        });
+    }
+
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    public long getPingsAnswered() {
+        return pingsAnswered.sum();
+    }
+
+    public long getClears() {
+        return clears.sum();
+    }
+
+    public long getFramesLost() {
+        return framesLost.sum();
+    }
+
+    public long getOtaPacketsReceived() {
+        return otaPackets.sum();
+    }
+
+    public long getOtaCorruptPackets() {
+        return otaCorrupt.sum();
+    }
+
+    // the last image received in full and closed with OTA_END, null before that
+    public byte[] getFirmware() {
+        return firmware;
+    }
+
+    // the last image received in full and closed with SPIFFS_END, null before that
+    public byte[] getSpiffsImage() {
+        return spiffsImage;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private void onDevice(Runnable task) {
+        try {
+            device.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // closed
+        }
+    }
+
+    private void tick() {
+        final long now = System.nanoTime();
+        final long pingInterval = pingIntervalNanos;
+        if (pingInterval > 0 && now - lastPingNanos >= pingInterval) {
+            lastPingNanos = now;
+            send(BT_PACKET_PING, EMPTY);
+        }
+
+        final double rate = eventsPerSecond;
+        if (rate > 0) {
+            eventsDue += rate * (now - lastTickNanos) / TimeUnit.SECONDS.toNanos(1);
+            while (eventsDue >= 1) {
+                eventsDue -= 1;
+                sendCommand(SEATS[random.nextInt(SEATS.length)]);
+            }
+        } else {
+            eventsDue = 0;
+        }
+        lastTickNanos = now;
+    }
+
+    private int deviceTime() {
+        final double elapsed = (System.nanoTime() - openNanos) * (1 + driftPpm / 1e6);
+        return bootMillis + (int) (elapsed / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void sendCommand(BUZZER_CMD cmd) {
+        final byte[] name = CommandDecoder.encode(cmd);
+        final byte[] payload = Arrays.copyOf(name, name.length + 4);
+        putIntLE(payload, name.length, deviceTime());
+        send((short) (BT_PACKET_CMD | BT_TIMESTAMP), payload);
+        eventsSent.increment();
+    }
+
+    private void send(short type, byte[] payload) {
+        if (!inRange || lossToHost > 0 && random.nextDouble() < lossToHost) {
+            framesLost.increment();
+            return;
+        }
+        toHost.add(frame(type, payload));
+    }
+
+    private void processPacket(short type, byte[] data, int offset, int length) {
+        switch ((short) (type & ~BT_TIMESTAMP)) {
+            case BT_PACKET_BQT_PING -> pingsAnswered.increment();
+            case BT_PACKET_CONFIG_READ -> {
+                final String key = new String(data, offset, length, StandardCharsets.US_ASCII);
+                send(BT_PACKET_CONFIG_READ, (key + "=" + config.getOrDefault(key, "")).getBytes(StandardCharsets.US_ASCII));
+            }
+            case BT_PACKET_CONFIG_WRITE -> {
+                final String pair = new String(data, offset, length, StandardCharsets.US_ASCII);
+                final int pos = pair.indexOf('=');
+                if (pos > 0) {
+                    config.put(pair.substring(0, pos), pair.substring(pos + 1));
+                }
+            }
+            case BT_PACKET_CMD -> {
+                if (CommandDecoder.decode(data, offset, length) == BUZZER_CMD.CLEAR) {
+                    clears.increment();
+                }
+            }
+            case BT_PACKET_OTA_START -> {
+                if (length >= 4) {
+                    ota = new Upload(readIntLE(data, offset));
+                }
+            }
+            case BT_PACKET_OTA_MSG -> {
+                if (ota != null) {
+                    final int received = ota.receive(data, offset, length);
+                    if (received < 0) {
+                        otaCorrupt.increment();
+                    } else if (received > 0) {
+                        otaPackets.increment();
+                    }
+                }
+            }
+            case BT_PACKET_OTA_REQ -> {
+                if (ota != null) {
+                    send(BT_PACKET_OTA_REQ, ota.request(otaRequestSize));
+                }
+            }
+            case BT_PACKET_OTA_END -> {
+                if (ota != null && ota.isComplete(data, offset, length)) {
+                    firmware = ota.image;
+                    ota = null;
+                }
+            }
+            case BT_PACKET_SPIFFS_START -> {
+                if (length >= 4) {
+                    spiffs = new Upload(readIntLE(data, offset));
+                }
+            }
+            case BT_PACKET_SPIFFS_MSG -> {
+                if (spiffs != null) {
+                    spiffs.receive(data, offset, length);
+                }
+            }
+            case BT_PACKET_SPIFFS_REQ -> {
+                if (spiffs != null && config.getOrDefault(BuzzerEngine.CONFIG_CAPABILITIES, "").contains(BuzzerEngine.CAPABILITY_SPIFFS_REQ)) {
+                    send(BT_PACKET_SPIFFS_REQ, spiffs.request(otaRequestSize));
+                }
+            }
+            case BT_PACKET_SPIFFS_END -> {
+                if (spiffs != null && spiffs.isComplete(data, offset, length)) {
+                    spiffsImage = spiffs.image;
+                    spiffs = null;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // an image being received, OTA or SPIFFS
+    private static final class Upload {
+        final byte[] image;
+        final boolean[] received;
+        final int packetCount;
+        int firstMissing = 0;
+
+        Upload(int size) {
+            image = new byte[Math.max(0, size)];
+            packetCount = (image.length + OtaTransfer.PACKET_SIZE - 1) / OtaTransfer.PACKET_SIZE;
+            received = new boolean[packetCount];
+        }
+
+        // [index][data][checksum], returns 1 for a new packet, 0 for a repeat and -1 for a bad one
+        int receive(byte[] data, int offset, int length) {
+            if (length < 4) {
+                return -1;
+            }
+            final int index = readShortLE(data, offset);
+            final int dataLength = length - 4;
+            if (index >= packetCount || (short) readShortLE(data, offset + length - 2) != checksum(data, offset + 2, dataLength)) {
+                return -1;
+            }
+            final int start = index * OtaTransfer.PACKET_SIZE;
+            System.arraycopy(data, offset + 2, image, start, Math.min(dataLength, image.length - start));
+            if (received[index]) {
+                return 0;
+            }
+            received[index] = true;
+            while (firstMissing < packetCount && received[firstMissing]) {
+                firstMissing++;
+            }
+            return 1;
+        }
+
+        // lists the lowest missing packets, or just the packet count once there are none
+        byte[] request(int maxPackets) {
+            final byte[] payload = new byte[maxPackets * 2];
+            int count = 0;
+            for (int i = firstMissing; i < packetCount && count < maxPackets; i++) {
+                if (!received[i]) {
+                    putShortLE(payload, count++ * 2, i);
+                }
+            }
+            if (count == 0) {
+                putShortLE(payload, count++ * 2, packetCount);
+            }
+            return Arrays.copyOf(payload, count * 2);
+        }
+
+        // END carries the image size
+        boolean isComplete(byte[] data, int offset, int length) {
+            return length >= 4 && readIntLE(data, offset) == image.length && firstMissing >= packetCount;
+        }
+    }
+
+    private void deliver(int gen, Receiver receiver, SplittableRandom linkRandom) {
+        byte[] buffer = new byte[LINK_BUFFER];
+        long linkFreeNanos = 0;
+        while (generation == gen) {
+            byte[] frame;
+            try {
+                frame = toHost.take();
+            } catch (InterruptedException ex) {
+                continue;
+            }
+
+            // take whatever else is queued, the host gets it in as few reads as the link allows
+            int length = 0;
+            do {
+                if (length + frame.length > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + frame.length));
+                }
+                System.arraycopy(frame, 0, buffer, length, frame.length);
+                length += frame.length;
+            } while (length < LINK_BUFFER && (frame = toHost.poll()) != null);
+
+            int pos = 0;
+            while (pos < length && generation == gen) {
+                final int chunk = maxRead > 0 ? Math.min(length - pos, 1 + linkRandom.nextInt(maxRead)) : length - pos;
+                final long rate = linkBytesPerSecond;
+                if (rate > 0) {
+                    linkFreeNanos = Math.max(linkFreeNanos, System.nanoTime()) + chunk * TimeUnit.SECONDS.toNanos(1) / rate;
+                    long wait;
+                    while ((wait = linkFreeNanos - System.nanoTime()) > 0 && generation == gen) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                try {
+                    receiver.received(buffer, pos, chunk);
+                } catch (Exception ex) {
+                    // the host's problem, keep the link up
+                }
+                pos += chunk;
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.biblequizsoftware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.biblequizsoftware.BuzzerProtocol.HEADER_SIZE;
+
+// append-only record of every frame to and from one device.
+//
+// frames are copied into memory-mapped segment files, so recording one is a bounds check and
+// a memcpy under an uncontended lock, and whatever has been recorded survives the process
+// dying (the OS writes the pages back). the next segment is mapped ahead of time on a
+// background thread, so when one is full recording just switches over; flushing and trimming
+// the full one and deleting the oldest beyond the retention limit happen there too.
+//
+// segment layout, little endian:
+//   "BQWJ" version:u16 headerLength:u16 epochMillis:i64 nanoTime:i64 nameLength:u16 name session:i64
+//   then records: direction:u8 hostNanos:i64 type:u16 length:u16 payload
+// the clock pair in the header maps hostNanos onto wall clock time. direction 0 marks the end.
+// every journal (one per connection) is a session, with an id shared by all its segments.
+// hostNanos only compare within a session, a later one may be another process or machine.
+public class WireJournal implements AutoCloseable {
+    public static final byte IN = 1;
+    public static final byte OUT = 2;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    static final String EXTENSION = ".bqj";
+    private static final int MAGIC = 'B' | 'Q' << 8 | 'W' << 16 | 'J' << 24;
+    private static final short VERSION = 2;
+    private static final int RECORD_HEADER = 1 + 8 + HEADER_SIZE;
+    private static final int MIN_SEGMENT_SIZE = 128 * 1024;
+
+    public record Header(String device, long session, long epochMillis, long nanoTime) {
+        // hostNanos of a record in this segment as nanoseconds since the epoch
+        public long toEpochNanos(long hostNanos) {
+            return epochMillis * 1_000_000 + (hostNanos - nanoTime);
+        }
+    }
+
+    public record Record(byte direction, long hostNanos, short type, byte[] payload) {
+    }
+
+    private record Segment(int number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+    }
+
+    // shared by every journal, it only ever does file housekeeping
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        final Thread t = new Thread(r, "wire-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path directory;
+    private final String device;
+    // <device>- for every segment of the device, <device>-<started>-<session>- for this journal's
+    private final String devicePrefix;
+    private final String prefix;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long session = ThreadLocalRandom.current().nextLong();
+
+    private Segment current;
+    private MappedByteBuffer buffer;
+    // mapped and headed ahead of time, null until the background thread has it ready
+    private Segment next;
+    private int sequence = 0;
+    private boolean closed = false;
+
+    private long records = 0;
+    private long bytes = 0;
+
+    public WireJournal(Path directory, String device) throws IOException {
+        this(directory, device, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    // maxSegments of 0 keeps everything
+    public WireJournal(Path directory, String device, int segmentSize, int maxSegments) throws IOException {
+        // big enough for the largest possible frame
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.device = device;
+        this.devicePrefix = device.replaceAll("[^A-Za-z0-9._]", "_") + "-";
+        // the session too, two connections in the same millisecond mustn't collide
+        this.prefix = devicePrefix + System.currentTimeMillis() + "-" + String.format("%016x", session) + "-";
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        current = openSegment(sequence++);
+        buffer = current.buffer();
+        background.execute(() -> {
+            prune();
+            prepareNext();
+        });
+    }
+
+    // the segments in a directory, oldest first
+    public static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // reads every record of a segment, in the order they were written
+    public static void read(Path segment, Consumer<Record> consumer) throws IOException {
+        final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment)).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < 8 || data.getInt(0) != MAGIC) {
+            throw new IOException(segment + " is not a wire journal");
+        }
+        data.position(data.getShort(6) & 0xffff);
+        while (data.remaining() >= RECORD_HEADER) {
+            final byte direction = data.get();
+            if (direction == 0) {
+                break;
+            }
+            final long hostNanos = data.getLong();
+            final short type = data.getShort();
+            final int length = data.getShort() & 0xffff;
+            if (length > data.remaining()) {
+                // cut off mid record
+                break;
+            }
+            final byte[] payload = new byte[length];
+            data.get(payload);
+            consumer.accept(new Record(direction, hostNanos, type, payload));
+        }
+    }
+
+    // the device a segment belongs to, the session it's part of, and the wall clock time
+    // (epoch millis) and host nanoTime it was started at
+    public static Header header(Path segment) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(26 + 0xffff + 8).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // keep reading
+            }
+            if (header.position() < 26 || header.getInt(0) != MAGIC) {
+                throw new IOException(segment + " is not a wire journal");
+            }
+            final int nameLength = Math.min(header.getShort(24) & 0xffff, header.position() - 26);
+            final String device = new String(header.array(), 26, nameLength, StandardCharsets.UTF_8);
+            final long session;
+            if (header.getShort(4) >= 2 && header.position() >= 26 + nameLength + 8) {
+                session = header.getLong(26 + nameLength);
+            } else {
+                // version 1 had no id, a session's segments share a file name up to the sequence
+                final String name = segment.getFileName().toString();
+                session = name.substring(0, Math.max(0, name.lastIndexOf('-'))).hashCode();
+            }
+            return new Header(device, session, header.getLong(8), header.getLong(16));
+        }
+    }
+
+    public synchronized void record(byte direction, long hostNanos, short type, byte[] data, int offset, int length) {
+        if (closed) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_HEADER + length + 1) {
+            try {
+                roll();
+            } catch (IOException ex) {
+                // out of disk or similar, stop rather than fail the caller
+                closed = true;
+                final Segment last = current;
+                background.execute(() -> finishSegment(last));
+                return;
+            }
+        }
+        buffer.put(direction);
+        buffer.putLong(hostNanos);
+        buffer.putShort(type);
+        buffer.putShort((short) length);
+        buffer.put(data, offset, length);
+        records++;
+        bytes += RECORD_HEADER + length;
+    }
+
+    // records a run of whole frames, as written in one go
+    public void recordFrames(byte direction, long hostNanos, byte[] data, int offset, int length) {
+        int pos = offset;
+        final int end = offset + length;
+        while (end - pos >= HEADER_SIZE) {
+            final int packetLength = Math.min(BuzzerProtocol.readShortLE(data, pos + 2), end - pos - HEADER_SIZE);
+            record(direction, hostNanos, (short) BuzzerProtocol.readShortLE(data, pos), data, pos + HEADER_SIZE, packetLength);
+            pos += HEADER_SIZE + packetLength;
+        }
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public long getSession() {
+        return session;
+    }
+
+    // waits for the last segment to be flushed and trimmed, and the unused spare to go
+    @Override
+    public void close() {
+        final Segment last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = current;
+        }
+        try {
+            // the spare is taken here, after any housekeeping still queued that needs to see it
+            background.submit(() -> {
+                final Segment spare;
+                synchronized (this) {
+                    spare = next;
+                    next = null;
+                }
+                finishSegment(last);
+                discard(spare);
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // best effort, the zeroed tail reads as the end anyway
+        }
+    }
+
+    // switches to the spare segment, everything else about the full one is done in the background
+    private void roll() throws IOException {
+        final Segment full = current;
+        Segment ready = next;
+        next = null;
+        if (ready == null) {
+            // the background thread hasn't caught up, map one here
+            ready = openSegment(sequence++);
+        }
+        current = ready;
+        buffer = ready.buffer();
+        background.execute(() -> {
+            finishSegment(full);
+            prune();
+            prepareNext();
+        });
+    }
+
+    // maps the segment the journal will move on to next
+    private void prepareNext() {
+        final int number;
+        synchronized (this) {
+            if (closed || next != null) {
+                return;
+            }
+            number = sequence++;
+        }
+        final Segment segment;
+        try {
+            segment = openSegment(number);
+        } catch (IOException ex) {
+            // roll() tries again itself when it gets there
+            return;
+        }
+        synchronized (this) {
+            // roll() may have had to map one of its own meanwhile, and this one would sort before it
+            if (!closed && segment.number() > current.number()) {
+                next = segment;
+                return;
+            }
+        }
+        discard(segment);
+    }
+
+    // the clock pair is taken when the segment is mapped rather than when it's first written
+    // to, it only has to be a pair read together to map hostNanos onto wall clock time
+    private Segment openSegment(int number) throws IOException {
+        final Path path = directory.resolve(prefix + String.format("%05d", number) + EXTENSION);
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException ex) {
+            channel.close();
+            Files.deleteIfExists(path);
+            throw ex;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        final byte[] nameBytes = device.getBytes(StandardCharsets.UTF_8);
+        final int headerLength = 26 + nameBytes.length + 8;
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) headerLength);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(System.nanoTime());
+        buffer.putShort((short) nameBytes.length);
+        buffer.put(nameBytes);
+        buffer.putLong(session);
+        return new Segment(number, path, channel, buffer);
+    }
+
+    // flushes a segment that's done with and trims it to what was written
+    private static void finishSegment(Segment segment) {
+        final int written = segment.buffer().position();
+        segment.buffer().force();
+        try {
+            // can fail while the mapping is still around (Windows), the zeroed tail reads as the end
+            segment.channel().truncate(written + 1);
+        } catch (IOException ex) {
+        }
+        try {
+            segment.channel().close();
+        } catch (IOException ex) {
+        }
+    }
+
+    // a spare that was never written to
+    private static void discard(Segment segment) {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.channel().close();
+            // can fail while the mapping is still around (Windows), it reads as an empty segment
+            Files.deleteIfExists(segment.path());
+        } catch (IOException ex) {
+        }
+    }
+
+    // keeps the newest maxSegments of this device's, including those from earlier sessions.
+    // the spare doesn't count, it has nothing in it yet
+    private void prune() {
+        if (maxSegments <= 0) {
+            return;
+        }
+        final Path spare;
+        synchronized (this) {
+            spare = next != null ? next.path() : null;
+        }
+        final List<Path> mine;
+        try (Stream<Path> files = Files.list(directory)) {
+            mine = files.filter(path -> {
+                final String name = path.getFileName().toString();
+                return name.startsWith(devicePrefix) && name.endsWith(EXTENSION) && !path.equals(spare);
+            }).sorted().collect(Collectors.toList());
+        } catch (IOException ex) {
+            return;
+        }
+        for (int i = 0; i < mine.size() - maxSegments; i++) {
+            try {
+                Files.deleteIfExists(mine.get(i));
+            } catch (IOException ex) {
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.biblequizsoftware.BuzzerEngine.BUZZER_CMD.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuzzArbiterTest {
+    private final List<BuzzArbiter.Ranking> rankings = new ArrayList<>();
+    private final BuzzArbiter arbiter = new BuzzArbiter(5, rankings::add);
+
+    @Test
+    void ranksByDeviceTimeNotArrival() {
+        arbiter.action(R1, 1030);
+        arbiter.action(Y2, 1010);
+        arbiter.action(R3, 1020);
+        assertEquals(List.of(Y2, R3, R1), arbiter.getRanking().getOrder());
+        assertEquals(Y2, arbiter.getRanking().getWinner());
+        assertFalse(arbiter.getRanking().isTied());
+        assertEquals(1010, arbiter.getRanking().getTime(0));
+        assertEquals(3, rankings.size());
+    }
+
+    @Test
+    void pressesWithinTheWindowTie() {
+        arbiter.action(R1, 1000);
+        arbiter.action(Y1, 1005);
+        arbiter.action(Y2, 1006);
+        final BuzzArbiter.Ranking ranking = arbiter.getRanking();
+        assertEquals(2, ranking.getTiedForFirst());
+        assertTrue(ranking.isTied());
+        // equal times keep arrival order
+        arbiter.action(CLEAR, 1100);
+        arbiter.action(R2, 1200);
+        arbiter.action(R3, 1200);
+        assertEquals(List.of(R2, R3), arbiter.getRanking().getOrder());
+    }
+
+    @Test
+    void eachSeatBuzzesOncePerRound() {
+        assertTrue(arbiter.submit(R1, 100));
+        assertFalse(arbiter.submit(R1, 50));
+        assertTrue(arbiter.isLocked(R1));
+        // the quiz master isn't a contender
+        assertFalse(arbiter.submit(QM, 10));
+        assertEquals(List.of(R1), arbiter.getRanking().getOrder());
+
+        assertTrue(arbiter.submit(CLEAR, 0));
+        assertFalse(arbiter.isLocked(R1));
+        assertTrue(arbiter.getRanking().getOrder().isEmpty());
+        assertEquals(1, arbiter.getRanking().getRound());
+        assertTrue(arbiter.submit(R1, 200));
+    }
+
+    @Test
+    void untimedPressesRankLast() {
+        arbiter.action(R1, 0);
+        arbiter.action(Y1, 5000);
+        arbiter.action(Y3, 0);
+        arbiter.action(R2, 4000);
+        assertEquals(List.of(R2, Y1, R1, Y3), arbiter.getRanking().getOrder());
+        // a tie never spans timed and untimed presses
+        final BuzzArbiter tight = new BuzzArbiter(Long.MAX_VALUE, null);
+        tight.action(R1, 0);
+        tight.action(Y1, 5000);
+        assertEquals(1, tight.getRanking().getTiedForFirst());
+    }
+
+    @Test
+    void clockThatSyncsMidRoundWaitsForTheNextRound() {
+        final ClockSync clock = new ClockSync();
+        final BuzzArbiter synced = new BuzzArbiter(5, null, clock);
+        synced.action(R1, 1000);
+
+        // the clock syncs, device time now maps to somewhere far off on the host clock
+        final long hostNanos = TimeUnit.SECONDS.toNanos(100_000);
+        clock.onDeviceTime(2000, hostNanos);
+        assertTrue(clock.isSynced());
+        // still ranked on device time, so the earlier press goes first
+        synced.action(Y1, 900);
+        assertEquals(List.of(Y1, R1), synced.getRanking().getOrder());
+        assertEquals(900, synced.getRanking().getTime(0));
+
+        // the next round is on the host clock, untimed presses by arrival and comparable
+        synced.action(CLEAR, 0);
+        synced.action(R2, 2010);
+        synced.action(R3, 2003);
+        assertEquals(List.of(R3, R2), synced.getRanking().getOrder());
+        assertEquals(TimeUnit.NANOSECONDS.toMillis(hostNanos) + 3, synced.getRanking().getTime(0));
+    }
+
+    @Test
+    void clockThatLosesSyncMidRoundFallsBackToArrival() throws InterruptedException {
+        final ClockSync clock = new ClockSync();
+        final long synced = System.nanoTime();
+        clock.onDeviceTime(2000, synced);
+        final BuzzArbiter arbiter = new BuzzArbiter(5, null, clock);
+        arbiter.action(R1, 2000);
+
+        Thread.sleep(20);
+        clock.reset();
+        // a tiny device time that would jump the queue if it were taken as is
+        arbiter.action(Y1, 10);
+        assertEquals(List.of(R1, Y1), arbiter.getRanking().getOrder());
+        assertEquals(TimeUnit.NANOSECONDS.toMillis(synced), arbiter.getRanking().getTime(0));
+        assertTrue(arbiter.getRanking().getTime(1) >= TimeUnit.NANOSECONDS.toMillis(synced) + 20);
+    }
+}
@@ -0,0 +1,150 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// link loss and recovery, an engine talking to a VirtualBuzzerDevice
+class BuzzerEngineTest {
+    private final VirtualBuzzerDevice device = new VirtualBuzzerDevice("engine-test");
+    private final BuzzerEngine engine = new BuzzerEngine(null);
+    private final CountDownLatch down = new CountDownLatch(1);
+    private final CountDownLatch up = new CountDownLatch(1);
+
+    BuzzerEngineTest() {
+        device.setEventRate(0);
+        device.setPingInterval(100, TimeUnit.MILLISECONDS);
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        engine.setPingTimeout(500, TimeUnit.MILLISECONDS);
+        engine.setReconnectBackoff(50, 200, TimeUnit.MILLISECONDS);
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void linkDown(SerialTransport transport) {
+                down.countDown();
+            }
+
+            @Override
+            public void linkUp(SerialTransport transport, long downNanos) {
+                up.countDown();
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.disconnect();
+    }
+
+    @Test
+    void linkComesBackWithConfigSetWhileItWasDown() throws InterruptedException {
+        assertTrue(engine.connect(device));
+
+        device.setInRange(false);
+        assertTrue(down.await(5, TimeUnit.SECONDS), "link wasn't dropped");
+        engine.writeConfig("volume", "7");
+        device.setInRange(true);
+
+        assertTrue(up.await(5, TimeUnit.SECONDS), "link didn't come back");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!"7".equals(device.getConfig().get("volume")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("7", device.getConfig().get("volume"));
+        assertTrue(engine.isConnected());
+    }
+
+    @Test
+    void disconnectDuringReconnect() throws InterruptedException {
+        final AtomicInteger opens = new AtomicInteger();
+        final CountDownLatch reopening = new CountDownLatch(1);
+        // opens at once the first time, then takes its time like a radio that's searching
+        final SerialTransport slow = new SerialTransport() {
+            @Override
+            public String getName() {
+                return device.getName();
+            }
+
+            @Override
+            public String getDescription() {
+                return device.getDescription();
+            }
+
+            @Override
+            public boolean open(Receiver receiver) {
+                if (opens.getAndIncrement() > 0) {
+                    reopening.countDown();
+                    try {
+                        Thread.sleep(1500);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return device.open(receiver);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return device.isOpen();
+            }
+
+            @Override
+            public void write(byte[] data, int length) {
+                device.write(data, length);
+            }
+
+            @Override
+            public void close() {
+                device.close();
+            }
+        };
+        assertTrue(engine.connect(slow));
+
+        device.setInRange(false);
+        assertTrue(down.await(5, TimeUnit.SECONDS), "link wasn't dropped");
+        device.setInRange(true);
+        assertTrue(reopening.await(5, TimeUnit.SECONDS), "no reconnect attempt");
+
+        // doesn't wait for the open in progress
+        final long start = System.nanoTime();
+        engine.disconnect();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500), "disconnect waited for the open");
+        assertFalse(engine.isConnected());
+
+        // and what that open brings up is closed again rather than brought back
+        Thread.sleep(2000);
+        assertEquals(1, up.getCount(), "link came back after disconnect");
+        assertFalse(device.isOpen());
+    }
+
+    @Test
+    void reopeningTheDeviceLeavesNoOldLinkBehind() throws InterruptedException {
+        final AtomicInteger current = new AtomicInteger(-1);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger stale = new AtomicInteger();
+        device.setPingInterval(1, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 50; i++) {
+            final int open = i;
+            current.set(open);
+            assertTrue(device.open((data, offset, length) -> {
+                received.incrementAndGet();
+                if (current.get() != open) {
+                    stale.incrementAndGet();
+                }
+            }));
+            Thread.sleep(3);
+            device.close();
+        }
+        current.set(-1);
+        Thread.sleep(50);
+        assertTrue(received.get() > 0);
+        assertEquals(0, stale.get(), "a closed open's link kept delivering");
+        assertEquals(0, Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals("virtual-link-" + device.getName())).count());
+    }
+}
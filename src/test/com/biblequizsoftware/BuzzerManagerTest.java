@@ -0,0 +1,89 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuzzerManagerTest {
+    private final List<BuzzerEvent> events = new CopyOnWriteArrayList<>();
+    private final BuzzerManager manager = new BuzzerManager(events::add, 20, TimeUnit.MILLISECONDS);
+    private final VirtualBuzzerDevice[] devices = {
+        new VirtualBuzzerDevice("manager-a"), new VirtualBuzzerDevice("manager-b"), new VirtualBuzzerDevice("manager-c")
+    };
+
+    BuzzerManagerTest() {
+        for (VirtualBuzzerDevice device : devices) {
+            device.setEventRate(0);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    void connectsWhatItCanInParallel() {
+        devices[1].setInRange(false);
+        final List<String> connected = manager.connectAll(new SerialTransport[] {devices[0], devices[1], devices[2]});
+        assertEquals(List.of("manager-a", "manager-c"), connected);
+        assertEquals(Set.of("manager-a", "manager-c"), manager.getDevices());
+        assertNull(manager.getEngine("manager-b"));
+
+        manager.disconnect("manager-a");
+        assertEquals(Set.of("manager-c"), manager.getDevices());
+        assertFalse(devices[0].isOpen());
+    }
+
+    @Test
+    void mergesEveryDeviceInTimelineOrder() throws InterruptedException {
+        for (VirtualBuzzerDevice device : devices) {
+            device.setEventRate(200);
+        }
+        assertEquals(3, manager.connectAll(devices).size());
+        await(() -> events.size() >= 300);
+        for (VirtualBuzzerDevice device : devices) {
+            device.setEventRate(0);
+        }
+
+        for (int i = 1; i < events.size(); i++) {
+            assertTrue(events.get(i).hostNanos() >= events.get(i - 1).hostNanos(), "out of order at " + i);
+        }
+        for (VirtualBuzzerDevice device : devices) {
+            assertTrue(events.stream().anyMatch(e -> e.device().equals(device.getName())), "nothing from " + device);
+        }
+        // held for the reorder window, never sent ahead of where they belong
+        for (BuzzerEvent event : events) {
+            assertTrue(event.hostNanos() <= event.receivedNanos());
+            assertTrue(event.eventTime() > 0);
+        }
+    }
+
+    @Test
+    void pressesAndClearsReachTheRightDevice() throws InterruptedException {
+        manager.connectAll(devices);
+        devices[2].press(BUZZER_CMD.Y3);
+        await(() -> !events.isEmpty());
+        assertEquals("manager-c", events.get(0).device());
+        assertSame(BUZZER_CMD.Y3, events.get(0).cmd());
+
+        manager.clearAll();
+        await(() -> devices[0].getClears() == 1 && devices[1].getClears() == 1 && devices[2].getClears() == 1);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
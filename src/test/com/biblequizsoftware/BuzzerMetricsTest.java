@@ -0,0 +1,64 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuzzerMetricsTest {
+    @Test
+    void readingTheRatesDoesntMoveTheWindow() throws InterruptedException {
+        final BuzzerMetrics metrics = new BuzzerMetrics();
+        metrics.bytesIn(10_000);
+        // nothing sampled yet, however often it's read
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, metrics.getBytesInPerSecond());
+            assertEquals(0, metrics.snapshot().bytesInPerSecond());
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (metrics.getBytesInPerSecond() == 0) {
+            assertTrue(System.nanoTime() < deadline, "never sampled");
+            Thread.sleep(10);
+        }
+        final long rate = metrics.getBytesInPerSecond();
+        assertTrue(rate > 5_000 && rate <= 10_000, "rate " + rate);
+        assertEquals(0, metrics.getBytesOutPerSecond());
+
+        metrics.reset();
+        assertEquals(0, metrics.getBytesInPerSecond());
+        assertEquals(0, metrics.getBytesIn());
+    }
+
+    @Test
+    void parseToCallbackLeavesOutTheCallback() throws InterruptedException {
+        final CountDownLatch pressed = new CountDownLatch(3);
+        final BuzzerEngine engine = new BuzzerEngine((cmd, timestamp) -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pressed.countDown();
+        });
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice("metrics-test");
+        device.setEventRate(0);
+        try {
+            assertTrue(engine.connect(device));
+            device.press(BUZZER_CMD.R1);
+            device.press(BUZZER_CMD.Y1);
+            device.press(BUZZER_CMD.R2);
+            assertTrue(pressed.await(5, TimeUnit.SECONDS));
+            final BuzzerMetrics metrics = engine.getMetrics();
+            assertTrue(metrics.parseToCallback.getCount() >= 3);
+            assertTrue(metrics.getParseToCallbackMaxNanos() < TimeUnit.MILLISECONDS.toNanos(50),
+                "max " + metrics.getParseToCallbackMaxNanos());
+        } finally {
+            engine.disconnect();
+        }
+    }
+}
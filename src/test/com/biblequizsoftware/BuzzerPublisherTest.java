@@ -0,0 +1,167 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuzzerPublisherTest {
+    // keeps what it's sent, requesting n up front and then one per item if each is set
+    private static final class Collector<T> implements Flow.Subscriber<T> {
+        final List<T> items = new CopyOnWriteArrayList<>();
+        final long initial;
+        final boolean each;
+        volatile Flow.Subscription subscription;
+        volatile boolean complete = false;
+
+        Collector(long initial, boolean each) {
+            this.initial = initial;
+            this.each = each;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initial > 0) {
+                subscription.request(initial);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+            if (each) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    private static BuzzerEvent event(BUZZER_CMD cmd, int eventTime) {
+        return new BuzzerEvent("publisher-manager", cmd, eventTime, System.nanoTime(), System.nanoTime());
+    }
+
+    @Test
+    void eventsAreNamedAfterTheEnginesCurrentDevice() throws InterruptedException {
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        final VirtualBuzzerDevice first = new VirtualBuzzerDevice("publisher-a");
+        final VirtualBuzzerDevice second = new VirtualBuzzerDevice("publisher-b");
+        first.setEventRate(0);
+        second.setEventRate(0);
+        try (BuzzerPublisher publisher = new BuzzerPublisher()) {
+            final Collector<BuzzerPublisher.Event> collector = new Collector<>(Long.MAX_VALUE, false);
+            publisher.subscribe(collector);
+            await(() -> publisher.getSubscriberCount() == 1);
+
+            // attached part way through the connection, so it never saw connected()
+            assertTrue(engine.connect(first));
+            publisher.attach(engine);
+            first.press(BUZZER_CMD.R1);
+            await(() -> buzzes(collector).size() == 1);
+            assertEquals("publisher-a", buzzes(collector).get(0).device());
+
+            engine.disconnect();
+            assertTrue(engine.connect(second));
+            second.press(BUZZER_CMD.Y2);
+            await(() -> buzzes(collector).size() == 2);
+            assertEquals("publisher-b", buzzes(collector).get(1).device());
+
+            await(() -> collector.items.stream().anyMatch(e -> e instanceof BuzzerPublisher.Config));
+            for (BuzzerPublisher.Event event : collector.items) {
+                assertNotNull(event.device(), event.toString());
+            }
+            assertTrue(collector.items.contains(new BuzzerPublisher.Link("publisher-a", BuzzerPublisher.LinkState.DISCONNECTED)));
+            assertTrue(collector.items.contains(new BuzzerPublisher.Link("publisher-b", BuzzerPublisher.LinkState.CONNECTED)));
+        } finally {
+            engine.disconnect();
+        }
+    }
+
+    @Test
+    void bySeatKeepsOnlyTheSeatsAskedFor() throws InterruptedException {
+        try (BuzzerPublisher publisher = new BuzzerPublisher()) {
+            final Collector<BuzzerPublisher.Buzz> collector = new Collector<>(1, true);
+            BuzzerPublisher.bySeat(publisher, BUZZER_CMD.R1, BUZZER_CMD.CLEAR).subscribe(collector);
+            await(() -> publisher.getSubscriberCount() == 1);
+
+            publisher.event(event(BUZZER_CMD.Y1, 1));
+            publisher.event(event(BUZZER_CMD.R1, 2));
+            publisher.event(event(BUZZER_CMD.CLEAR, 3));
+            publisher.event(event(BUZZER_CMD.R2, 4));
+            publisher.close();
+            await(() -> collector.complete);
+            assertEquals(List.of(BUZZER_CMD.R1, BUZZER_CMD.CLEAR), collector.items.stream().map(BuzzerPublisher.Buzz::cmd).toList());
+        }
+    }
+
+    @Test
+    void roundsAreSentAsEachEnds() throws InterruptedException {
+        try (BuzzerPublisher publisher = new BuzzerPublisher()) {
+            final Collector<BuzzerPublisher.Round> collector = new Collector<>(1, true);
+            BuzzerPublisher.rounds(publisher).subscribe(collector);
+            await(() -> publisher.getSubscriberCount() == 1);
+
+            publisher.event(event(BUZZER_CMD.R1, 1));
+            publisher.event(event(BUZZER_CMD.Y1, 2));
+            publisher.event(event(BUZZER_CMD.CLEAR, 3));
+            await(() -> collector.items.size() == 1);
+            assertEquals(1, collector.items.get(0).number());
+            assertEquals(2, collector.items.get(0).buzzes().size());
+
+            // whatever is left goes out as the last round
+            publisher.event(event(BUZZER_CMD.R3, 4));
+            publisher.close();
+            await(() -> collector.complete);
+            assertEquals(2, collector.items.size());
+            assertEquals(BUZZER_CMD.R3, collector.items.get(1).buzzes().get(0).cmd());
+        }
+    }
+
+    @Test
+    void aSubscriberThatDoesntRequestMissesEventsOnItsOwn() throws InterruptedException {
+        try (BuzzerPublisher publisher = new BuzzerPublisher(4)) {
+            final Collector<BuzzerPublisher.Event> stalled = new Collector<>(0, false);
+            final Collector<BuzzerPublisher.Event> keeping = new Collector<>(Long.MAX_VALUE, false);
+            publisher.subscribe(stalled);
+            publisher.subscribe(keeping);
+            await(() -> publisher.getSubscriberCount() == 2 && stalled.subscription != null);
+
+            for (int i = 0; i < 100; i++) {
+                publisher.event(event(BUZZER_CMD.R1, i));
+                // the keeping subscriber is never that far behind
+                final int sent = i + 1;
+                await(() -> keeping.items.size() == sent);
+            }
+            assertTrue(stalled.items.isEmpty());
+            assertTrue(publisher.getDropped() >= 90, "dropped " + publisher.getDropped());
+        }
+    }
+
+    private static List<BuzzerPublisher.Buzz> buzzes(Collector<BuzzerPublisher.Event> collector) {
+        return collector.items.stream().filter(e -> e instanceof BuzzerPublisher.Buzz).map(e -> (BuzzerPublisher.Buzz) e).toList();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClockSyncTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // a device whose millisecond clock reads bootMillis at host time start, running ppm fast,
+    // heard after 1-20 ms of delivery delay with the occasional quick one
+    private static void feed(ClockSync sync, long start, int bootMillis, double ppm, long seconds, Random random) {
+        for (long host = start; host < start + TimeUnit.SECONDS.toNanos(seconds); host += 10 * MS) {
+            final int deviceTime = bootMillis + (int) ((host - start) * (1 + ppm / 1e6) / MS);
+            final long delay = random.nextInt(10) == 0 ? MS : MS + random.nextInt(19) * MS;
+            sync.onDeviceTime(deviceTime, host + delay);
+        }
+    }
+
+    @Test
+    void mapsDeviceTimeOntoTheHost() {
+        final ClockSync sync = new ClockSync(1000, 1, TimeUnit.SECONDS);
+        assertFalse(sync.isSynced());
+        final long start = 1_000_000 * MS;
+        feed(sync, start, 5000, 0, 20, new Random(1));
+        assertTrue(sync.isSynced());
+
+        // device time 15000 is 10 s after start
+        final long mapped = sync.toHostNanos(15_000);
+        assertEquals(start + 10_000 * MS, mapped, 3 * MS);
+    }
+
+    @Test
+    void estimatesDrift() {
+        final ClockSync sync = new ClockSync(1000, 1, TimeUnit.SECONDS);
+        final long start = 1_000_000 * MS;
+        feed(sync, start, 1000, 200, 30, new Random(2));
+        assertEquals(200, sync.getDriftPpm(), 50);
+
+        final int deviceTime = 1000 + (int) (25_000 * (1 + 200 / 1e6));
+        assertEquals(start + 25_000 * MS, sync.toHostNanos(deviceTime), 3 * MS);
+    }
+
+    @Test
+    void tracksRoundTrips() {
+        final ClockSync sync = new ClockSync();
+        sync.onRoundTrip(0, 10 * MS);
+        sync.onRoundTrip(0, 4 * MS);
+        sync.onRoundTrip(5 * MS, 5 * MS);
+        assertEquals(2, sync.getRoundTrips());
+        assertEquals(4 * MS, sync.getMinRttNanos());
+        assertTrue(sync.getSmoothedRttNanos() < 10 * MS && sync.getSmoothedRttNanos() > 4 * MS);
+    }
+
+    @Test
+    void resetForgetsEverything() {
+        final ClockSync sync = new ClockSync(1000, 1, TimeUnit.SECONDS);
+        sync.onRoundTrip(0, 4 * MS);
+        feed(sync, 1_000_000 * MS, 5000, 0, 5, new Random(3));
+
+        sync.reset();
+        assertFalse(sync.isSynced());
+        assertEquals(0, sync.getSamples());
+        assertEquals(0, sync.getRoundTrips());
+        assertEquals(0, sync.getMinRttNanos());
+    }
+
+    @Test
+    void deviceRebootStartsOver() {
+        final ClockSync sync = new ClockSync(1000, 1, TimeUnit.SECONDS);
+        sync.onRoundTrip(0, 2 * MS);
+        final long start = 1_000_000 * MS;
+        feed(sync, start, 500_000, 0, 10, new Random(4));
+
+        // rebooted: its clock starts again from near 0
+        final long reboot = start + TimeUnit.SECONDS.toNanos(12);
+        feed(sync, reboot, 100, 0, 3, new Random(5));
+        assertEquals(reboot + 2000 * MS, sync.toHostNanos(2100), 3 * MS);
+        assertEquals(2 * MS, sync.getMinRttNanos(), "the link's round trips are kept");
+    }
+
+    @Test
+    void engineStartsOverForEachConnection() throws InterruptedException {
+        final AtomicLong mapped = new AtomicLong();
+        final AtomicLong heard = new AtomicLong();
+        final CountDownLatch[] pressed = {new CountDownLatch(1)};
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.setConfigCache(null);
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void buzzerEvent(BUZZER_CMD cmd, int eventTime, long hostNanos) {
+                mapped.set(hostNanos);
+                heard.set(System.nanoTime());
+                pressed[0].countDown();
+            }
+        });
+        final VirtualBuzzerDevice first = new VirtualBuzzerDevice("clock-a");
+        final VirtualBuzzerDevice second = new VirtualBuzzerDevice("clock-b");
+        first.setEventRate(0);
+        second.setEventRate(0);
+        // boots 1.8 s later than the first (seed 1) and is opened 3 s later, so its clock reads
+        // ahead of where the first one's stopped but runs about a second behind it
+        second.setSeed(2419);
+        try {
+            assertTrue(engine.connect(first));
+            first.press(BUZZER_CMD.R1);
+            assertTrue(pressed[0].await(5, TimeUnit.SECONDS));
+            engine.disconnect();
+
+            Thread.sleep(3000);
+            pressed[0] = new CountDownLatch(1);
+            assertTrue(engine.connect(second));
+            second.press(BUZZER_CMD.R2);
+            assertTrue(pressed[0].await(5, TimeUnit.SECONDS));
+            // placed where it happened, not a second early on the first device's offset
+            final long early = heard.get() - mapped.get();
+            assertTrue(early >= 0 && early < 100 * MS, "mapped " + early / MS + " ms before it was heard");
+        } finally {
+            engine.disconnect();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandDecoderTest {
+    @Test
+    void everyCommandRoundTrips() {
+        for (BUZZER_CMD cmd : BUZZER_CMD.values()) {
+            final byte[] name = CommandDecoder.encode(cmd);
+            assertArrayEquals(cmd.name().getBytes(StandardCharsets.US_ASCII), name);
+            assertSame(cmd, CommandDecoder.decode(name, 0, name.length));
+        }
+    }
+
+    @Test
+    void decodesInPlace() {
+        final byte[] data = "xxCLEARyy".getBytes(StandardCharsets.US_ASCII);
+        assertSame(BUZZER_CMD.CLEAR, CommandDecoder.decode(data, 2, 5));
+        assertSame(BUZZER_CMD.QM, CommandDecoder.decode("QMQM".getBytes(StandardCharsets.US_ASCII), 2, 2));
+    }
+
+    @Test
+    void unknownPayloadsAreNull() {
+        for (String name : List.of("", "R", "R4", "CLEA", "CLEARX", "r1", "CL", "Q")) {
+            final byte[] data = name.getBytes(StandardCharsets.US_ASCII);
+            assertNull(CommandDecoder.decode(data, 0, data.length), name);
+        }
+        // same low seven bits as "R1", so it lands on R1's slot and has to fail the compare
+        assertNull(CommandDecoder.decode(new byte[] {(byte) ('R' | 0x80), '1'}, 0, 2));
+    }
+
+    @Test
+    void encodeHandsOutACopy() {
+        final byte[] name = CommandDecoder.encode(BUZZER_CMD.R1);
+        Arrays.fill(name, (byte) 0);
+        assertSame(BUZZER_CMD.R1, CommandDecoder.decode("R1".getBytes(StandardCharsets.US_ASCII), 0, 2));
+    }
+
+    @Test
+    void engineDispatchesEveryCommandInOrder() throws InterruptedException {
+        final List<BUZZER_CMD> received = new CopyOnWriteArrayList<>();
+        final List<Integer> timestamps = new CopyOnWriteArrayList<>();
+        final BuzzerEngine engine = new BuzzerEngine((cmd, timestamp) -> {
+            received.add(cmd);
+            timestamps.add(timestamp);
+        });
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice("decoder-test");
+        device.setEventRate(0);
+        device.setFragmentation(3);
+        try {
+            assertTrue(engine.connect(device));
+            for (BUZZER_CMD cmd : BUZZER_CMD.values()) {
+                device.press(cmd);
+            }
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.size() < BUZZER_CMD.values().length && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(List.of(BUZZER_CMD.values()), received);
+            // the device's own time, which never goes backwards
+            for (int i = 1; i < timestamps.size(); i++) {
+                assertTrue(timestamps.get(i) >= timestamps.get(i - 1));
+            }
+            assertTrue(timestamps.get(0) > 0);
+        } finally {
+            engine.disconnect();
+        }
+    }
+}
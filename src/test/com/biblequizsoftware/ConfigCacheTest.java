@@ -0,0 +1,107 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigCacheTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsEachDeviceApartEvenWithDotsInTheName() {
+        final ConfigCache cache = new ConfigCache(directory.resolve("config.properties"));
+        cache.put("/dev/cu.usbserial-1", Map.of("volume", "3", "mode", "team"));
+        cache.put("/dev/cu.usbserial", Map.of("volume", "9"));
+        assertEquals(Map.of("volume", "3", "mode", "team"), cache.get("/dev/cu.usbserial-1"));
+        assertEquals(Map.of("volume", "9"), cache.get("/dev/cu.usbserial"));
+        assertTrue(cache.contains("/dev/cu.usbserial"));
+        assertFalse(cache.contains("/dev/cu"));
+        assertEquals(Map.of(), cache.get("/dev/cu"));
+
+        cache.remove("/dev/cu.usbserial");
+        assertFalse(cache.contains("/dev/cu.usbserial"));
+        assertTrue(cache.contains("/dev/cu.usbserial-1"));
+    }
+
+    @Test
+    void mergesAndSurvivesAReload() {
+        final Path path = directory.resolve("nested").resolve("config.properties");
+        final ConfigCache cache = new ConfigCache(path);
+        cache.put("COM3", Map.of("volume", "3", "mode", "team"));
+        cache.put("COM3", Map.of("volume", "5"));
+        assertTrue(Files.exists(path));
+
+        final ConfigCache reloaded = new ConfigCache(path);
+        assertEquals(Map.of("volume", "5", "mode", "team"), reloaded.get("COM3"));
+    }
+
+    @Test
+    void onlySavesWhenSomethingChanged() throws Exception {
+        final Path path = directory.resolve("config.properties");
+        final ConfigCache cache = new ConfigCache(path);
+        cache.put("COM3", Map.of("volume", "3"));
+        Files.writeString(path, "COM3.volume=marker\n");
+        // the same value again doesn't touch the file
+        cache.put("COM3", Map.of("volume", "3"));
+        assertEquals("COM3.volume=marker\n", Files.readString(path));
+        cache.put("COM3", Map.of("volume", "4"));
+        assertEquals("4", new ConfigCache(path).get("COM3").get("volume"));
+    }
+
+    @Test
+    void anUnreadableFileStartsEmpty() throws Exception {
+        final Path path = directory.resolve("config.properties");
+        // a malformed unicode escape
+        Files.writeString(path, "COM3.volume=\\uZZZZ\n");
+        final ConfigCache cache = new ConfigCache(path);
+        assertFalse(cache.contains("COM3"));
+        cache.put("COM3", Map.of("volume", "2"));
+        assertEquals(Map.of("volume", "2"), new ConfigCache(path).get("COM3"));
+
+        // somewhere it can't write is just forgotten on the next run
+        final ConfigCache unwritable = new ConfigCache(path.resolve("not-a-directory").resolve("config.properties"));
+        unwritable.put("COM3", Map.of("volume", "2"));
+        assertEquals(Map.of("volume", "2"), unwritable.get("COM3"));
+    }
+
+    @Test
+    void reconnectingStartsFromTheCachedConfig() throws InterruptedException {
+        final ConfigCache cache = new ConfigCache(directory.resolve("config.properties"));
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice("config-test");
+        device.setEventRate(0);
+        device.setConfig("volume", "6");
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.setConfigCache(cache);
+        engine.setOtaProgressDirectory(null);
+        try {
+            assertTrue(engine.connect(device));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!"6".equals(cache.get("config-test").get("volume"))) {
+                assertTrue(System.nanoTime() < deadline, "the config read never reached the cache");
+                Thread.sleep(10);
+            }
+            engine.disconnect();
+
+            // a link so slow the device can't have answered anything yet
+            final BuzzerEngine next = new BuzzerEngine(null);
+            next.setConfigCache(cache);
+            next.setOtaProgressDirectory(null);
+            device.setLinkRate(10);
+            try {
+                assertTrue(next.connect(device));
+                assertEquals("6", next.getConfig().get("volume"));
+            } finally {
+                next.disconnect();
+            }
+        } finally {
+            engine.disconnect();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.biblequizsoftware;
+
+import com.fazecast.jSerialComm.SerialPort;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceDiscoveryTest {
+    @TempDir
+    Path directory;
+
+    // what the next scan finds, null for enumeration failing
+    private final AtomicReference<List<SerialPort>> present = new AtomicReference<>(List.of());
+    private final DeviceDiscovery discovery = new DeviceDiscovery(1, TimeUnit.HOURS, () -> {
+        final List<SerialPort> ports = present.get();
+        if (ports == null) {
+            throw new IllegalStateException("enumeration failed");
+        }
+        return ports;
+    });
+    private final List<String> changes = new CopyOnWriteArrayList<>();
+
+    DeviceDiscoveryTest() {
+        discovery.addListener(new DeviceDiscovery.Listener() {
+            @Override
+            public void added(SerialPort port) {
+                changes.add("+" + port.getSystemPortName());
+            }
+
+            @Override
+            public void removed(SerialPort port) {
+                changes.add("-" + port.getSystemPortName());
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        discovery.close();
+    }
+
+    // jSerialComm only needs the path to exist to describe a port
+    private SerialPort port(String name) throws Exception {
+        final Path path = directory.resolve(name);
+        if (!Files.exists(path)) {
+            Files.createFile(path);
+        }
+        return SerialPort.getCommPort(path.toString());
+    }
+
+    @Test
+    void reportsOnlyWhatChanged() throws Exception {
+        final SerialPort a = port("ttyBUZZ0");
+        present.set(List.of(a, port("ttyBUZZ1")));
+        discovery.scanNow().get();
+        assertEquals(List.of("+ttyBUZZ0", "+ttyBUZZ1"), changes);
+
+        // a fresh instance for a port already known is ignored
+        present.set(List.of(port("ttyBUZZ0"), port("ttyBUZZ2")));
+        discovery.scanNow().get();
+        assertEquals(List.of("+ttyBUZZ0", "+ttyBUZZ1", "-ttyBUZZ1", "+ttyBUZZ2"), changes);
+        assertSame(a, discovery.getDevices().get(0));
+        assertEquals(2, discovery.getDevices().size());
+
+        discovery.scanNow().get();
+        assertEquals(4, changes.size());
+    }
+
+    @Test
+    void aFailedScanForgetsNothing() throws Exception {
+        present.set(List.of(port("ttyBUZZ0")));
+        discovery.scanNow().get();
+        present.set(null);
+        discovery.scanNow().get();
+        assertEquals(List.of("+ttyBUZZ0"), changes);
+        assertEquals(1, discovery.getDevices().size());
+    }
+
+    @Test
+    void aThrowingListenerDoesntStopTheOthers() throws Exception {
+        discovery.addListener(new DeviceDiscovery.Listener() {
+            @Override
+            public void added(SerialPort port) {
+                throw new IllegalStateException();
+            }
+        });
+        final List<String> late = new CopyOnWriteArrayList<>();
+        discovery.addListener(new DeviceDiscovery.Listener() {
+            @Override
+            public void added(SerialPort port) {
+                late.add(port.getSystemPortName());
+            }
+        });
+        present.set(List.of(port("ttyBUZZ0"), port("ttyBUZZ1")));
+        discovery.scanNow().get();
+        assertEquals(List.of("ttyBUZZ0", "ttyBUZZ1"), late);
+    }
+
+    @Test
+    void pollsUntilClosed() throws Exception {
+        final DeviceDiscovery polling = new DeviceDiscovery(10, TimeUnit.MILLISECONDS, present::get);
+        final List<String> seen = new CopyOnWriteArrayList<>();
+        polling.addListener(new DeviceDiscovery.Listener() {
+            @Override
+            public void added(SerialPort port) {
+                seen.add(port.getSystemPortName());
+            }
+        });
+        try {
+            polling.start();
+            present.set(List.of(port("ttyBUZZ0")));
+            await(() -> seen.size() == 1);
+            polling.close();
+            present.set(List.of(port("ttyBUZZ0"), port("ttyBUZZ1")));
+            Thread.sleep(100);
+            assertEquals(List.of("ttyBUZZ0"), seen);
+            assertNull(polling.scanNow());
+        } finally {
+            polling.close();
+        }
+    }
+
+    @Test
+    void autoConnectOnlyTriesWhatPassesTheFilter() throws Exception {
+        final List<String> offered = new CopyOnWriteArrayList<>();
+        present.set(List.of(port("ttyBUZZ0")));
+        discovery.scanNow().get();
+        final BuzzerManager manager = new BuzzerManager(event -> { });
+        try {
+            // ports already known are offered straight away, new ones as they turn up
+            discovery.setAutoConnect(manager, port -> {
+                offered.add(port.getSystemPortName());
+                return false;
+            });
+            present.set(List.of(port("ttyBUZZ0"), port("ttyBUZZ1")));
+            discovery.scanNow().get();
+            assertEquals(List.of("ttyBUZZ0", "ttyBUZZ1"), offered);
+            assertTrue(manager.getDevices().isEmpty());
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceLogTest {
+    @TempDir
+    Path directory;
+
+    private static boolean offer(DeviceLog log, String device, int deviceTime, String message) {
+        final byte[] data = ("xx" + message).getBytes(StandardCharsets.UTF_8);
+        return log.offer(device, deviceTime, data, 2, data.length - 2);
+    }
+
+    @Test
+    void writesLinesAndReadsThemBack() throws Exception {
+        final long before = System.currentTimeMillis();
+        try (DeviceLog log = new DeviceLog(directory)) {
+            assertTrue(offer(log, "log-a", 10, "plain"));
+            assertTrue(offer(log, "log-b", 20, "tab\there, back\\slash\nand a newline\r\n"));
+            assertTrue(offer(log, "log-a", 30, "c string\0garbage after the nul"));
+            // counted as written before it's added to the tail
+            await(() -> log.tail(null, 10).size() == 3);
+
+            assertEquals(List.of("plain", "c string"), messages(log.tail("log-a", 10)));
+            assertEquals(List.of("c string"), messages(log.tail("log-a", 1)));
+        }
+
+        // a fresh log reads what the last one left
+        try (DeviceLog log = new DeviceLog(directory)) {
+            final List<DeviceLog.Entry> entries = log.query(null, before, System.currentTimeMillis(), 10);
+            assertEquals(List.of("plain", "tab\there, back\\slash\nand a newline", "c string"), messages(entries));
+            assertEquals("log-b", entries.get(1).device());
+            assertEquals(20, entries.get(1).deviceTime());
+            assertEquals(List.of("plain", "c string"), messages(log.query("log-a", before, Long.MAX_VALUE, 10)));
+            assertEquals(1, log.query(null, before, Long.MAX_VALUE, 1).size());
+            assertTrue(log.query(null, 0, before - 1, 10).isEmpty());
+            assertTrue(log.tail(null, 10).isEmpty());
+        }
+    }
+
+    @Test
+    void aFullRingDropsRatherThanWaits() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try (DeviceLog log = new DeviceLog(directory, 2, DeviceLog.DEFAULT_FILE_SIZE, 0)) {
+            // holds the log thread so nothing more is taken off the ring
+            log.addListener(entry -> {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(offer(log, "log-full", 0, "first"));
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            assertTrue(offer(log, "log-full", 0, "second"));
+            assertTrue(offer(log, "log-full", 0, "third"));
+            assertFalse(offer(log, "log-full", 0, "dropped"));
+            assertEquals(4, log.getOffered());
+            assertEquals(1, log.getDropped());
+
+            release.countDown();
+            await(() -> log.tail(null, 10).size() == 3);
+            assertEquals(3, log.getWritten());
+            assertEquals(List.of("first", "second", "third"), messages(log.tail(null, 10)));
+        }
+    }
+
+    @Test
+    void everyProducerIsCountedAndKeepsItsOrder() throws Exception {
+        final int producers = 4;
+        final int lines = 20_000;
+        try (DeviceLog log = new DeviceLog(directory, 256, DeviceLog.DEFAULT_FILE_SIZE, 0)) {
+            final List<List<Integer>> heard = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                heard.add(new ArrayList<>());
+            }
+            final AtomicInteger count = new AtomicInteger();
+            log.addListener(entry -> {
+                heard.get(entry.device().charAt(0) - '0').add(entry.deviceTime());
+                count.incrementAndGet();
+            });
+
+            final List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final String device = Integer.toString(p);
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < lines; i++) {
+                        offer(log, device, i, "line");
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(producers * lines, log.getOffered());
+            await(() -> count.get() + log.getDropped() == producers * lines);
+            assertEquals(count.get(), log.getWritten());
+
+            // drops leave gaps, but what got through is in the order it was offered
+            for (List<Integer> times : heard) {
+                for (int i = 1; i < times.size(); i++) {
+                    assertTrue(times.get(i) > times.get(i - 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    void rollsAndKeepsTheNewestFiles() throws Exception {
+        try (DeviceLog log = new DeviceLog(directory, 16, 100, 2)) {
+            for (int i = 0; i < 20; i++) {
+                offer(log, "log-roll", i, "a line long enough that each file only takes a couple " + i);
+                final long written = i + 1;
+                await(() -> log.getWritten() == written);
+                // the files are named by the millisecond they were started
+                Thread.sleep(2);
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+        try (DeviceLog log = new DeviceLog(directory)) {
+            final List<DeviceLog.Entry> kept = log.query(null, 0, Long.MAX_VALUE, 100);
+            assertFalse(kept.isEmpty());
+            assertEquals(19, kept.get(kept.size() - 1).deviceTime());
+            assertTrue(kept.get(0).deviceTime() > 10);
+        }
+    }
+
+    @Test
+    void engineLogsUnderTheDeviceName() throws Exception {
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice("log-engine");
+        device.setEventRate(0);
+        try (DeviceLog log = new DeviceLog(directory)) {
+            engine.setDeviceLog(log);
+            assertTrue(engine.connect(device));
+            device.log("booted\n");
+            await(() -> log.tail(null, 1).size() == 1);
+            final DeviceLog.Entry entry = log.tail(null, 1).get(0);
+            assertEquals("log-engine", entry.device());
+            assertEquals("booted", entry.message());
+            assertTrue(entry.deviceTime() > 0);
+        } finally {
+            engine.disconnect();
+        }
+    }
+
+    private static List<String> messages(List<DeviceLog.Entry> entries) {
+        return entries.stream().map(DeviceLog.Entry::message).toList();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventBridgeTest {
+    private final AtomicInteger cleared = new AtomicInteger();
+    private EventBridge bridge;
+
+    @AfterEach
+    void tearDown() {
+        if (bridge != null) {
+            bridge.close();
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    @Test
+    void tcpClientsGetLinesAndCanClear() throws Exception {
+        bridge = new EventBridge(cleared::incrementAndGet);
+        try (Socket socket = connect(bridge.listen(0))) {
+            await(() -> bridge.getClientCount() == 1);
+            bridge.publish("COM\"3", BUZZER_CMD.R2, -1, System.nanoTime());
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            final String line = in.readLine();
+            assertTrue(line.startsWith("{\"device\":\"COM\\\"3\",\"cmd\":\"R2\",\"eventTime\":4294967295,\"time\":"), line);
+
+            socket.getOutputStream().write("  CLEAR \r\nnot a command\n".getBytes(StandardCharsets.US_ASCII));
+            await(() -> cleared.get() == 1);
+            assertEquals(1, bridge.getClears());
+            assertEquals(1, bridge.getPublished());
+        }
+        await(() -> bridge.getClientCount() == 0);
+    }
+
+    @Test
+    void webSocketClientsGetTextFramesAndCanClear() throws Exception {
+        bridge = new EventBridge(cleared::incrementAndGet);
+        try (Socket socket = connect(bridge.listenWebSocket(0))) {
+            final DataInputStream in = handshake(socket);
+            bridge.publish("COM4", BUZZER_CMD.QM, 5, System.nanoTime());
+            assertEquals(0x81, in.readUnsignedByte());
+            final byte[] message = new byte[in.readUnsignedByte()];
+            in.readFully(message);
+            assertTrue(new String(message, StandardCharsets.UTF_8).startsWith("{\"device\":\"COM4\",\"cmd\":\"QM\",\"eventTime\":5,"));
+
+            sendFrame(socket, 0x81, "clear");
+            await(() -> cleared.get() == 1);
+
+            sendFrame(socket, 0x89, "hi");
+            assertEquals(0x8a, in.readUnsignedByte());
+            assertEquals(2, in.readUnsignedByte());
+            assertEquals('h', in.readUnsignedByte());
+            assertEquals('i', in.readUnsignedByte());
+        }
+    }
+
+    @Test
+    void fragmentedMessagesAreRefused() throws Exception {
+        bridge = new EventBridge(cleared::incrementAndGet);
+        for (int first : new int[] {0x01, 0x80}) {
+            try (Socket socket = connect(bridge.listenWebSocket(0))) {
+                final DataInputStream in = handshake(socket);
+                // a text frame without FIN, or a continuation frame
+                sendFrame(socket, first, "clear");
+                assertEquals(0x88, in.readUnsignedByte());
+                assertEquals(2, in.readUnsignedByte());
+                assertEquals(1003, in.readUnsignedShort());
+                assertEquals(-1, in.read());
+            }
+        }
+        assertEquals(0, cleared.get());
+    }
+
+    @Test
+    void failedClearsAreCounted() throws Exception {
+        bridge = new EventBridge(() -> {
+            throw new IllegalStateException("not connected");
+        });
+        try (Socket socket = connect(bridge.listen(0))) {
+            socket.getOutputStream().write("clear\nclear\n".getBytes(StandardCharsets.US_ASCII));
+            await(() -> bridge.getClearFailures() == 2);
+            assertEquals(2, bridge.getClears());
+            // still serving
+            bridge.publish("COM5", BUZZER_CMD.Y1, 1, System.nanoTime());
+            assertNotNull(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine());
+        }
+    }
+
+    @Test
+    void eventsAreDroppedWhileTheBridgeIsStuck() throws Exception {
+        final CountDownLatch clearing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // a clear that blocks, which it mustn't, holds up the bridge thread
+        bridge = new EventBridge(() -> {
+            clearing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, EventBridge.DEFAULT_MAX_QUEUED, 8);
+        try (Socket socket = connect(bridge.listen(0))) {
+            await(() -> bridge.getClientCount() == 1);
+            socket.getOutputStream().write("clear\n".getBytes(StandardCharsets.US_ASCII));
+            assertTrue(clearing.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 20; i++) {
+                bridge.publish("COM6", BUZZER_CMD.R1, i, System.nanoTime());
+            }
+            assertEquals(8, bridge.getPublished());
+            assertEquals(12, bridge.getDropped());
+
+            release.countDown();
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (int i = 0; i < 8; i++) {
+                assertTrue(in.readLine().contains("\"eventTime\":" + i + ","));
+            }
+        }
+    }
+
+    private static DataInputStream handshake(Socket socket) throws IOException {
+        socket.getOutputStream().write(("GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        final StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith("\r\n\r\n")) {
+            response.append((char) in.readUnsignedByte());
+        }
+        assertTrue(response.toString().startsWith("HTTP/1.1 101"));
+        // the RFC 6455 example key
+        assertTrue(response.toString().contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+        return in;
+    }
+
+    // masked, as clients have to send them
+    private static void sendFrame(Socket socket, int first, String text) throws IOException {
+        final byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] mask = {1, 2, 3, 4};
+        final byte[] frame = new byte[6 + payload.length];
+        frame[0] = (byte) first;
+        frame[1] = (byte) (0x80 | payload.length);
+        System.arraycopy(mask, 0, frame, 2, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[6 + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        final OutputStream out = socket.getOutputStream();
+        out.write(frame);
+        out.flush();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
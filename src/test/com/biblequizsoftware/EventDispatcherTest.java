@@ -0,0 +1,137 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventDispatcherTest {
+    private final List<Integer> delivered = new CopyOnWriteArrayList<>();
+    private final CountDownLatch consuming = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // records each timestamp, holding up the consumer on the first until released
+    private final BuzzerEngine.BuzzerCallback slow = (cmd, timestamp) -> {
+        delivered.add(timestamp);
+        consuming.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    };
+
+    @Test
+    void dropOldestKeepsTheNewest() throws InterruptedException {
+        try (EventDispatcher dispatcher = new EventDispatcher(slow, 4, EventDispatcher.OverflowPolicy.DROP_OLDEST)) {
+            dispatcher.action(BUZZER_CMD.R1, 1);
+            assertTrue(consuming.await(5, TimeUnit.SECONDS));
+            // the consumer is stuck on 1, only the last four of these fit
+            for (int i = 2; i <= 11; i++) {
+                dispatcher.action(BUZZER_CMD.R1, i);
+            }
+            assertEquals(6, dispatcher.getDropped());
+            assertEquals(11, dispatcher.getOffered());
+
+            release.countDown();
+            awaitDelivered(dispatcher, 5);
+            assertEquals(List.of(1, 8, 9, 10, 11), delivered);
+        }
+    }
+
+    @Test
+    void coalesceFoldsRepeatsOfTheNewest() throws InterruptedException {
+        try (EventDispatcher dispatcher = new EventDispatcher(slow, 4, EventDispatcher.OverflowPolicy.COALESCE)) {
+            dispatcher.action(BUZZER_CMD.R1, 1);
+            assertTrue(consuming.await(5, TimeUnit.SECONDS));
+            dispatcher.action(BUZZER_CMD.R2, 2);
+            dispatcher.action(BUZZER_CMD.R3, 3);
+            dispatcher.action(BUZZER_CMD.Y1, 4);
+            dispatcher.action(BUZZER_CMD.Y2, 5);
+            // full, a repeat of Y2 keeps the earlier press, anything else pushes out the oldest
+            dispatcher.action(BUZZER_CMD.Y2, 6);
+            dispatcher.action(BUZZER_CMD.Y3, 7);
+            assertEquals(1, dispatcher.getCoalesced());
+            assertEquals(1, dispatcher.getDropped());
+
+            release.countDown();
+            awaitDelivered(dispatcher, 5);
+            assertEquals(List.of(1, 3, 4, 5, 7), delivered);
+        }
+    }
+
+    @Test
+    void dropOldestNeverDropsAClear() throws InterruptedException {
+        try (EventDispatcher dispatcher = new EventDispatcher(slow, 4, EventDispatcher.OverflowPolicy.DROP_OLDEST)) {
+            dispatcher.action(BUZZER_CMD.R1, 1);
+            assertTrue(consuming.await(5, TimeUnit.SECONDS));
+            dispatcher.action(BUZZER_CMD.R2, 2);
+            dispatcher.action(BUZZER_CMD.CLEAR, 3);
+            dispatcher.action(BUZZER_CMD.R3, 4);
+            dispatcher.action(BUZZER_CMD.Y1, 5);
+            // full, 2 goes to make room, then the CLEAR is oldest and the new presses give way
+            dispatcher.action(BUZZER_CMD.Y2, 6);
+            dispatcher.action(BUZZER_CMD.Y3, 7);
+            dispatcher.action(BUZZER_CMD.QM, 8);
+            assertEquals(3, dispatcher.getDropped());
+
+            release.countDown();
+            awaitDelivered(dispatcher, 5);
+            assertEquals(List.of(1, 3, 4, 5, 6), delivered);
+        }
+    }
+
+    @Test
+    void aClearWaitsForRoomBehindAnotherClear() throws InterruptedException {
+        try (EventDispatcher dispatcher = new EventDispatcher(slow, 2, EventDispatcher.OverflowPolicy.COALESCE)) {
+            dispatcher.action(BUZZER_CMD.R1, 1);
+            assertTrue(consuming.await(5, TimeUnit.SECONDS));
+            dispatcher.action(BUZZER_CMD.CLEAR, 2);
+            dispatcher.action(BUZZER_CMD.R2, 3);
+
+            final Thread producer = new Thread(() -> dispatcher.action(BUZZER_CMD.CLEAR, 4));
+            producer.start();
+            producer.join(200);
+            assertTrue(producer.isAlive(), "a CLEAR was dropped rather than waiting");
+
+            release.countDown();
+            producer.join(5000);
+            awaitDelivered(dispatcher, 4);
+            assertEquals(List.of(1, 2, 3, 4), delivered);
+            assertEquals(0, dispatcher.getDropped());
+            assertTrue(dispatcher.getBlockedNanos() > 0);
+        }
+    }
+
+    @Test
+    void callbackFailuresAreCountedByTheEngine() throws InterruptedException {
+        final BuzzerEngine.BuzzerCallback failing = (cmd, timestamp) -> {
+            throw new IllegalStateException("application bug");
+        };
+        try (EventDispatcher dispatcher = new EventDispatcher(failing, 4, EventDispatcher.OverflowPolicy.BLOCK)) {
+            final BuzzerEngine engine = new BuzzerEngine(dispatcher);
+            dispatcher.action(BUZZER_CMD.R1, 1);
+            dispatcher.action(BUZZER_CMD.R2, 2);
+            awaitDelivered(dispatcher, 2);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (dispatcher.getCallbackErrors() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(2, dispatcher.getCallbackErrors());
+            assertEquals(2, engine.getMetrics().getCallbackErrors());
+        }
+    }
+
+    private static void awaitDelivered(EventDispatcher dispatcher, int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getDelivered() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, dispatcher.getDelivered());
+    }
+}
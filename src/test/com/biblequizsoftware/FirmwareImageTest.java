@@ -0,0 +1,90 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FirmwareImageTest {
+    private static final int PACKET_SIZE = OtaTransfer.PACKET_SIZE;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] data(int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void packetTableMatchesTheData() {
+        // big enough for the table to be built in parallel, with a short last packet
+        final byte[] data = data(4096 * PACKET_SIZE + 37);
+        final FirmwareImage image = FirmwareImage.wrap(data, PACKET_SIZE);
+        assertEquals(4097, image.getPacketCount());
+        assertEquals(37, image.packetLength(4096));
+
+        final byte[] packet = new byte[PACKET_SIZE];
+        for (int i = 0; i < image.getPacketCount(); i++) {
+            final int offset = i * PACKET_SIZE;
+            final int length = Math.min(PACKET_SIZE, data.length - offset);
+            assertEquals(offset, image.packetOffset(i));
+            assertEquals(length, image.copyPacket(i, packet, 0));
+            assertArrayEquals(Arrays.copyOfRange(data, offset, offset + length), Arrays.copyOf(packet, length));
+            assertEquals(checksum(data, offset, length), image.packetChecksum(i));
+        }
+    }
+
+    @Test
+    void encodesOtaFrames() {
+        final byte[] data = data(3 * PACKET_SIZE - 10);
+        final FirmwareImage image = FirmwareImage.wrap(data, PACKET_SIZE);
+        final byte[] frame = new byte[HEADER_SIZE + PACKET_SIZE + 4];
+
+        final int length = OtaTransfer.encodePacket(image, 2, frame);
+        final int payload = PACKET_SIZE - 10;
+        assertEquals(HEADER_SIZE + payload + 4, length);
+        assertEquals(BT_PACKET_OTA_MSG, readShortLE(frame, 0));
+        assertEquals(payload + 4, readShortLE(frame, 2));
+        assertEquals(2, readShortLE(frame, HEADER_SIZE));
+        assertArrayEquals(Arrays.copyOfRange(data, 2 * PACKET_SIZE, data.length), Arrays.copyOfRange(frame, HEADER_SIZE + 2, HEADER_SIZE + 2 + payload));
+        assertEquals(checksum(data, 2 * PACKET_SIZE, payload), (short) readShortLE(frame, HEADER_SIZE + 2 + payload));
+    }
+
+    @Test
+    void openSharesTheMappingOfAnUnchangedFile() throws Exception {
+        final byte[] data = data(10_000);
+        final Path file = directory.resolve("firmware.bin");
+        Files.write(file, data);
+
+        final FirmwareImage image = FirmwareImage.open(file, PACKET_SIZE);
+        assertSame(image, FirmwareImage.open(file, PACKET_SIZE));
+        assertNotSame(image, FirmwareImage.open(file, 50));
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data)), image.getHash());
+
+        // rewritten, it has to be mapped again
+        final byte[] updated = data(10_001);
+        Files.write(file, updated);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        final FirmwareImage reopened = FirmwareImage.open(file, PACKET_SIZE);
+        assertNotSame(image, reopened);
+        assertEquals(10_001, reopened.getSize());
+    }
+
+    @Test
+    void rejectsImagesThatCantBeAddressed() {
+        assertThrows(IllegalArgumentException.class, () -> FirmwareImage.wrap(new byte[(1 << 16) + 1], 1));
+        assertThrows(IllegalArgumentException.class, () -> FirmwareImage.wrap(new byte[10], 0));
+        assertEquals(1 << 16, FirmwareImage.wrap(new byte[1 << 16], 1).getPacketCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FleetUpdateTest {
+    private static byte[] image(int size) {
+        final byte[] image = new byte[size];
+        new Random(size).nextBytes(image);
+        return image;
+    }
+
+    private static VirtualBuzzerDevice device(String name) {
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice(name);
+        device.setEventRate(0);
+        return device;
+    }
+
+    @Test
+    void updatesEveryDeviceAFewAtATime() throws InterruptedException {
+        final byte[] image = image(20_000);
+        final FleetUpdate update = new FleetUpdate(FirmwareImage.wrap(image, OtaTransfer.PACKET_SIZE));
+        update.setConcurrency(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostAtOnce = new AtomicInteger();
+        final AtomicInteger progress = new AtomicInteger();
+        update.addListener(new FleetUpdate.Listener() {
+            @Override
+            public void started(String device) {
+                mostAtOnce.accumulateAndGet(running.incrementAndGet(), Math::max);
+            }
+
+            @Override
+            public void progress(String device, int packetsAcked, int packetCount, long bytesPerSecond) {
+                progress.incrementAndGet();
+            }
+
+            @Override
+            public void finished(FleetUpdate.DeviceResult result) {
+                running.decrementAndGet();
+            }
+        });
+
+        final List<VirtualBuzzerDevice> devices = List.of(device("fleet-a"), device("fleet-b"), device("fleet-c"), device("fleet-d"));
+        final FleetUpdate.Result result = update.run(devices);
+        assertEquals(4, result.completed(), result.toString());
+        assertTrue(mostAtOnce.get() <= 2, mostAtOnce.get() + " at once");
+        assertTrue(progress.get() > 0);
+        assertTrue(result.bytesPerSecond() > 0);
+        for (int i = 0; i < devices.size(); i++) {
+            final FleetUpdate.DeviceResult device = result.devices().get(i);
+            assertEquals(devices.get(i).getName(), device.device());
+            assertEquals(image.length, device.bytes());
+            assertFalse(devices.get(i).isOpen());
+        }
+    }
+
+    @Test
+    void reportsWhatWentWrongPerDevice() throws InterruptedException {
+        final FleetUpdate update = new FleetUpdate(FirmwareImage.wrap(image(20_000), OtaTransfer.PACKET_SIZE));
+        update.setDeviceTimeout(3, TimeUnit.SECONDS);
+        final VirtualBuzzerDevice missing = device("fleet-missing");
+        missing.setInRange(false);
+        // connects, but hears nothing the host sends
+        final VirtualBuzzerDevice slow = device("fleet-slow");
+        slow.setLoss(0, 1);
+
+        final FleetUpdate.Result result = update.run(List.of(missing, slow, device("fleet-fine")));
+        assertEquals(FleetUpdate.Outcome.CONNECT_FAILED, result.devices().get(0).outcome());
+        assertEquals(FleetUpdate.Outcome.TIMED_OUT, result.devices().get(1).outcome());
+        assertEquals(0, result.devices().get(1).bytes());
+        assertEquals(FleetUpdate.Outcome.COMPLETE, result.devices().get(2).outcome());
+        assertEquals(1, result.completed());
+        assertFalse(slow.isOpen());
+    }
+
+    @Test
+    void cancelStopsEverything() throws InterruptedException {
+        final FleetUpdate update = new FleetUpdate(FirmwareImage.wrap(image(50_000), OtaTransfer.PACKET_SIZE));
+        update.setConcurrency(1);
+        final VirtualBuzzerDevice first = device("fleet-cancel-a");
+        first.setLinkRate(2000);
+        update.addListener(new FleetUpdate.Listener() {
+            @Override
+            public void started(String device) {
+                update.cancel();
+            }
+        });
+
+        final long start = System.nanoTime();
+        final FleetUpdate.Result result = update.run(List.of(first, device("fleet-cancel-b")));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertEquals(FleetUpdate.Outcome.CANCELLED, result.devices().get(0).outcome());
+        assertEquals(FleetUpdate.Outcome.CANCELLED, result.devices().get(1).outcome());
+        assertEquals(0, result.completed());
+        assertFalse(first.isOpen());
+    }
+}
@@ -0,0 +1,113 @@
+package com.biblequizsoftware;
+
+import com.biblequizsoftware.BuzzerEngine.BUZZER_CMD;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalReplayTest {
+    @TempDir
+    Path directory;
+
+    private static void press(WireJournal journal, long hostNanos, String cmd) {
+        final byte[] payload = cmd.getBytes(StandardCharsets.US_ASCII);
+        journal.record(WireJournal.IN, hostNanos, BT_PACKET_CMD, payload, 0, payload.length);
+    }
+
+    @Test
+    void eachSessionIsReplayedOnItsOwn() throws Exception {
+        // two connections to the same box
+        final WireJournal first = new WireJournal(directory, "COM3", 128 * 1024, 0);
+        press(first, System.nanoTime(), "R1");
+        press(first, System.nanoTime(), "R2");
+        first.close();
+        final WireJournal second = new WireJournal(directory, "COM3", 128 * 1024, 0);
+        press(second, System.nanoTime(), "Y1");
+        second.close();
+        assertNotEquals(first.getSession(), second.getSession());
+        final List<Path> segments = WireJournal.segments(directory);
+        assertEquals(first.getSession(), WireJournal.header(segments.get(0)).session());
+        assertEquals(second.getSession(), WireJournal.header(segments.get(1)).session());
+
+        final List<BUZZER_CMD> events = new CopyOnWriteArrayList<>();
+        final JournalReplay replay = new JournalReplay((cmd, timestamp) -> events.add(cmd));
+        replay.load(directory);
+        assertEquals(List.of("COM3"), replay.getDevices());
+        assertEquals(2, replay.getSessions());
+
+        final JournalReplay.Result result = replay.run();
+        assertEquals(2, result.devices());
+        assertEquals(3, result.events());
+        assertTrue(events.indexOf(BUZZER_CMD.R1) < events.indexOf(BUZZER_CMD.R2));
+        assertTrue(events.contains(BUZZER_CMD.Y1));
+    }
+
+    @Test
+    void aSessionKeepsItsSpacingAcrossSegments() throws Exception {
+        // small enough segments that the session spans a few of them
+        final WireJournal journal = new WireJournal(directory, "COM3", 128 * 1024, 0);
+        final byte[] log = new byte[1000];
+        final long start = System.nanoTime();
+        for (int i = 0; i < 400; i++) {
+            journal.record(WireJournal.IN, start + i * TimeUnit.MILLISECONDS.toNanos(1), BT_PACKET_LOG, log, 0, log.length);
+        }
+        press(journal, start + TimeUnit.MILLISECONDS.toNanos(400), "R1");
+        journal.close();
+        assertTrue(WireJournal.segments(directory).size() > 2);
+
+        final JournalReplay replay = new JournalReplay(null);
+        replay.load(directory);
+        assertEquals(1, replay.getSessions());
+        replay.setMode(JournalReplay.Mode.REAL_TIME, 1);
+        final JournalReplay.Result result = replay.run();
+        assertEquals(1, result.events());
+        assertEquals(401, result.frames());
+        assertEquals(400, result.elapsedNanos() / 1e6, 150);
+    }
+
+    @Test
+    void anEngineConnectingTwiceJournalsTwoSessions() throws Exception {
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        engine.setJournal(directory);
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice("journal-test");
+        device.setEventRate(0);
+        final List<BUZZER_CMD> heard = new CopyOnWriteArrayList<>();
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void buzzerEvent(BUZZER_CMD cmd, int eventTime, long hostNanos) {
+                heard.add(cmd);
+            }
+        });
+        try {
+            for (BUZZER_CMD cmd : List.of(BUZZER_CMD.R1, BUZZER_CMD.Y2)) {
+                assertTrue(engine.connect(device));
+                device.press(cmd);
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (!heard.contains(cmd)) {
+                    assertTrue(System.nanoTime() < deadline, "never heard " + cmd);
+                    Thread.sleep(5);
+                }
+                engine.disconnect();
+            }
+        } finally {
+            engine.disconnect();
+        }
+
+        final List<BUZZER_CMD> replayed = new CopyOnWriteArrayList<>();
+        final JournalReplay replay = new JournalReplay((cmd, timestamp) -> replayed.add(cmd));
+        replay.load(directory);
+        assertEquals(2, replay.getSessions());
+        assertEquals(2, replay.run().events());
+        assertTrue(replayed.containsAll(List.of(BUZZER_CMD.R1, BUZZER_CMD.Y2)));
+    }
+}
@@ -0,0 +1,65 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtaProgressTest {
+    @TempDir
+    Path directory;
+
+    private static FirmwareImage image(int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return FirmwareImage.wrap(data, OtaTransfer.PACKET_SIZE);
+    }
+
+    @Test
+    void picksUpWhereItLeftOff() throws Exception {
+        final FirmwareImage image = image(10_000);
+        try (OtaProgress progress = OtaProgress.open(directory, "COM3", image)) {
+            progress.setAcked(0, true);
+            progress.setAcked(7, true);
+            progress.setAcked(8, true);
+            progress.setAcked(8, false);
+            assertEquals(2, progress.getAckedCount());
+        }
+        try (OtaProgress progress = OtaProgress.open(directory, "COM3", image)) {
+            assertEquals(2, progress.getAckedCount());
+            assertTrue(progress.isAcked(7));
+            assertFalse(progress.isAcked(8));
+        }
+        // another image, or another device, starts empty
+        try (OtaProgress progress = OtaProgress.open(directory, "COM3", image(10_001))) {
+            assertEquals(0, progress.getAckedCount());
+        }
+        try (OtaProgress progress = OtaProgress.open(directory, "COM4", image)) {
+            assertEquals(0, progress.getAckedCount());
+        }
+    }
+
+    @Test
+    void aCompletedUpdateLeavesNothingToResume() throws Exception {
+        final FirmwareImage image = image(10_000);
+        final OtaProgress progress = OtaProgress.open(directory, "COM3", image);
+        for (int i = 0; i < image.getPacketCount(); i++) {
+            progress.setAcked(i, true);
+        }
+        final Path path = progress.getPath();
+        // a second name for the file keeps what the delete leaves, as a failed delete would
+        final Path kept = directory.resolve("kept");
+        Files.createLink(kept, path);
+        progress.delete();
+        assertFalse(Files.exists(path));
+
+        Files.move(kept, path);
+        try (OtaProgress reopened = OtaProgress.open(directory, "COM3", image)) {
+            assertEquals(0, reopened.getAckedCount());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// firmware updates end to end, an engine talking to a VirtualBuzzerDevice
+class OtaTransferTest {
+    private final VirtualBuzzerDevice device = new VirtualBuzzerDevice("ota-test");
+    private final BuzzerEngine engine = new BuzzerEngine(null);
+    private final CountDownLatch complete = new CountDownLatch(1);
+    private volatile int acked = 0;
+
+    @TempDir
+    Path progressDirectory;
+
+    OtaTransferTest() {
+        device.setEventRate(0);
+        engine.setConfigCache(null);
+        engine.setOtaRetryTimeout(300, TimeUnit.MILLISECONDS);
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void otaProgress(int packetsAcked, int packetCount, long bytesPerSecond) {
+                acked = packetsAcked;
+            }
+
+            @Override
+            public void otaComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+                complete.countDown();
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.disconnect();
+    }
+
+    @Test
+    void cleanLinkSendsEachPacketOnce() throws InterruptedException {
+        engine.setOtaProgressDirectory(null);
+        assertTrue(engine.connect(device));
+
+        final byte[] image = image(100_000);
+        final int packetCount = engine.startFirmwareUpdate(FirmwareImage.wrap(image, OtaTransfer.PACKET_SIZE));
+        assertEquals(1000, packetCount);
+
+        assertTrue(complete.await(60, TimeUnit.SECONDS), "update didn't finish");
+        assertArrayEquals(image, firmware());
+        assertEquals(packetCount, device.getOtaPacketsReceived());
+        assertEquals(0, device.getOtaCorruptPackets());
+        assertTrue(acked > 0, "no progress reported");
+    }
+
+    @Test
+    void lossyLinkStillDeliversTheImage() throws InterruptedException {
+        device.setSeed(7);
+        device.setLoss(0.02, 0.02);
+        device.setFragmentation(13);
+        engine.setOtaProgressDirectory(null);
+        assertTrue(engine.connect(device));
+
+        final byte[] image = image(40_000);
+        engine.startFirmwareUpdate(FirmwareImage.wrap(image, OtaTransfer.PACKET_SIZE));
+
+        assertTrue(complete.await(60, TimeUnit.SECONDS), "update didn't finish");
+        assertArrayEquals(image, firmware());
+    }
+
+    @Test
+    void outageDoesNotThrowAwayResumeProgress() throws Exception {
+        device.setPingInterval(100, TimeUnit.MILLISECONDS);
+        device.setLinkRate(20_000);
+        engine.setOtaProgressDirectory(progressDirectory);
+        engine.setPingTimeout(500, TimeUnit.MILLISECONDS);
+        engine.setReconnectBackoff(50, 200, TimeUnit.MILLISECONDS);
+        final CountDownLatch down = new CountDownLatch(1);
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void linkDown(SerialTransport transport) {
+                down.countDown();
+            }
+        });
+        assertTrue(engine.connect(device));
+
+        final byte[] image = image(100_000);
+        final int packetCount = engine.startFirmwareUpdate(FirmwareImage.wrap(image, OtaTransfer.PACKET_SIZE));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (acked < packetCount / 3) {
+            assertTrue(System.nanoTime() < deadline, "update made no progress");
+            Thread.sleep(20);
+        }
+
+        device.setInRange(false);
+        assertTrue(down.await(5, TimeUnit.SECONDS), "link wasn't dropped");
+        // several retry timeouts' worth, each of which would have counted as unanswered
+        Thread.sleep(2000);
+        assertTrue(ackedOnDisk() > 0, "resume progress was wiped during the outage");
+
+        device.setInRange(true);
+        assertTrue(complete.await(60, TimeUnit.SECONDS), "update didn't finish after the link came back");
+        assertArrayEquals(image, firmware());
+        // carried on rather than starting over
+        assertEquals(packetCount, device.getOtaPacketsReceived());
+        try (Stream<Path> files = Files.list(progressDirectory)) {
+            assertEquals(0, files.count(), "progress kept after the update completed");
+        }
+    }
+
+    // OTA_END goes out as the engine reports completion, give the device a moment to take it
+    private byte[] firmware() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (device.getFirmware() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return device.getFirmware();
+    }
+
+    private static byte[] image(int size) {
+        final byte[] image = new byte[size];
+        new Random(size).nextBytes(image);
+        return image;
+    }
+
+    // packets marked in the progress file
+    private int ackedOnDisk() throws IOException {
+        final Path file;
+        try (Stream<Path> files = Files.list(progressDirectory)) {
+            file = files.findFirst().orElseThrow();
+        }
+        final byte[] data = Files.readAllBytes(file);
+        int count = 0;
+        for (int i = 16; i < data.length; i++) {
+            count += Integer.bitCount(data[i] & 0xff);
+        }
+        return count;
+    }
+}
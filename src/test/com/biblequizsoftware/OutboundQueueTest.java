@@ -0,0 +1,126 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    // frames per write, as the queue reports them
+    private final List<Integer> writes = new CopyOnWriteArrayList<>();
+    private final List<String> packets = new CopyOnWriteArrayList<>();
+    private final PacketFramer framer = new PacketFramer((type, data, offset, length) ->
+            packets.add(type + ":" + new String(data, offset, length, StandardCharsets.UTF_8)));
+
+    // holds up the first write until released, so everything after it queues
+    private final SerialTransport transport = new SerialTransport() {
+        @Override
+        public String getName() {
+            return "queue-test";
+        }
+
+        @Override
+        public String getDescription() {
+            return "";
+        }
+
+        @Override
+        public boolean open(Receiver receiver) {
+            return true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void write(byte[] data, int length) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (framer) {
+                framer.feed(data, 0, length);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final OutboundQueue queue = new OutboundQueue(transport, (data, length, frames) -> writes.add(frames));
+
+    private void write(short type, String payload) {
+        final byte[] frame = frame(type, payload.getBytes(StandardCharsets.UTF_8));
+        queue.write(frame, frame.length);
+    }
+
+    @Test
+    void urgentFirstAndConfigWritesCoalesce() throws InterruptedException {
+        write(BT_PACKET_CONFIG_READ, "first");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        write(BT_PACKET_CONFIG_WRITE, "volume=1");
+        write(BT_PACKET_CONFIG_READ, "volume");
+        write(BT_PACKET_CONFIG_WRITE, "volume=2");
+        write(BT_PACKET_CONFIG_WRITE, "name=box");
+        write(BT_PACKET_CMD, "C");
+        write(BT_PACKET_BQT_PING, "p");
+        assertEquals(1, queue.getCoalesced());
+
+        release.countDown();
+        awaitPackets(6);
+        assertEquals(List.of(
+                BT_PACKET_CONFIG_READ + ":first",
+                BT_PACKET_CMD + ":C",
+                BT_PACKET_BQT_PING + ":p",
+                BT_PACKET_CONFIG_READ + ":volume",
+                // moved behind the read queued after the write it replaced
+                BT_PACKET_CONFIG_WRITE + ":volume=2",
+                BT_PACKET_CONFIG_WRITE + ":name=box"), packets);
+        // everything that queued up behind the first write goes out together
+        assertEquals(List.of(1, 5), writes);
+        queue.close();
+    }
+
+    @Test
+    void batchesAreCappedInSize() throws InterruptedException {
+        write(BT_PACKET_CONFIG_READ, "first");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        final List<String> expected = new ArrayList<>();
+        expected.add(BT_PACKET_CONFIG_READ + ":first");
+        final String value = "x".repeat(200);
+        for (int i = 0; i < 10; i++) {
+            write(BT_PACKET_CONFIG_WRITE, "key" + i + "=" + value);
+            expected.add(BT_PACKET_CONFIG_WRITE + ":key" + i + "=" + value);
+        }
+
+        release.countDown();
+        awaitPackets(expected.size());
+        assertEquals(expected, packets);
+        // about 210 bytes a frame, four to a 1 KB write
+        assertEquals(List.of(1, 4, 4, 2), writes);
+        queue.close();
+    }
+
+    private void awaitPackets(int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (packets.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
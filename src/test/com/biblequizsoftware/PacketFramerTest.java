@@ -0,0 +1,109 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.biblequizsoftware.BuzzerProtocol.frame;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketFramerTest {
+    private record Packet(short type, byte[] payload) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Packet p && p.type == type && Arrays.equals(p.payload, payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return type * 31 + Arrays.hashCode(payload);
+        }
+    }
+
+    private final List<Packet> received = new ArrayList<>();
+    private final PacketFramer framer = new PacketFramer((type, data, offset, length) ->
+            received.add(new Packet(type, Arrays.copyOfRange(data, offset, offset + length))));
+
+    private static final List<Packet> PACKETS = List.of(
+            new Packet((short) 1, new byte[] {1, 2, 3}),
+            new Packet((short) 2, new byte[0]),
+            new Packet((short) 0x8003, new byte[] {9, 8, 7, 6, 5, 4, 3, 2}),
+            new Packet((short) 4, new byte[] {42}));
+
+    private static byte[] stream(List<Packet> packets) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Packet packet : packets) {
+            out.writeBytes(frame(packet.type(), packet.payload()));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void everySplitPointGivesTheSamePackets() {
+        final byte[] data = stream(PACKETS);
+        for (int split = 0; split <= data.length; split++) {
+            received.clear();
+            framer.reset();
+            framer.feed(data, 0, split);
+            framer.feed(data, split, data.length - split);
+            assertEquals(PACKETS, received, "split at " + split);
+            assertEquals(0, framer.pending());
+        }
+    }
+
+    @Test
+    void oneByteAtATime() {
+        final byte[] data = stream(PACKETS);
+        for (int i = 0; i < data.length; i++) {
+            framer.feed(data, i, 1);
+        }
+        assertEquals(PACKETS, received);
+        assertEquals(0, framer.pending());
+    }
+
+    @Test
+    void packetLargerThanTheRing() {
+        final byte[] big = new byte[5000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        final List<Packet> packets = List.of(PACKETS.get(0), new Packet((short) 7, big), PACKETS.get(3));
+        final byte[] data = stream(packets);
+        // reads that end mid packet, so the big one has to be put together in the ring
+        for (int offset = 0; offset < data.length; offset += 333) {
+            framer.feed(data, offset, Math.min(333, data.length - offset));
+        }
+        assertEquals(packets, received);
+    }
+
+    @Test
+    void throwingHandlerDoesNotRedeliver() {
+        final byte[] data = stream(PACKETS);
+        for (int split = 0; split <= data.length; split++) {
+            final List<Short> seen = new ArrayList<>();
+            final PacketFramer throwing = new PacketFramer((type, d, offset, length) -> {
+                seen.add(type);
+                if (type == 2) {
+                    throw new IllegalStateException("handler failed");
+                }
+            });
+            // the fast path when everything is fed in one go, the ring when it's split
+            try {
+                throwing.feed(data, 0, split);
+            } catch (IllegalStateException ex) {
+                // expected at some splits
+            }
+            try {
+                throwing.feed(data, split, data.length - split);
+            } catch (IllegalStateException ex) {
+                // expected at some splits
+            }
+            // whatever was left after the throw is picked up by the next feed
+            throwing.feed(frame((short) 5, new byte[0]));
+            assertEquals(List.of((short) 1, (short) 2, (short) 0x8003, (short) 4, (short) 5), seen, "split at " + split);
+        }
+    }
+}
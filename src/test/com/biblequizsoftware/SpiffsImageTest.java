@@ -0,0 +1,164 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpiffsImageTest {
+    private static final int PACKET_SIZE = OtaTransfer.PACKET_SIZE;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] data(int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private Path write(byte[] data) throws Exception {
+        final Path file = directory.resolve("spiffs.bin");
+        Files.write(file, data);
+        return file;
+    }
+
+    private static void assertPacket(byte[] data, SpiffsImage image, int index) {
+        final byte[] packet = new byte[PACKET_SIZE];
+        final int offset = index * PACKET_SIZE;
+        final int length = Math.min(PACKET_SIZE, data.length - offset);
+        assertEquals(length, image.copyPacket(index, packet, 0), "packet " + index);
+        assertArrayEquals(Arrays.copyOfRange(data, offset, offset + length), Arrays.copyOf(packet, length), "packet " + index);
+        assertEquals(checksum(data, offset, length), image.packetChecksum(index, packet, 0, length));
+    }
+
+    @Test
+    void packetsMatchTheFile() throws Exception {
+        // a few read-ahead buffers' worth, with a short last packet
+        final byte[] data = data(2000 * PACKET_SIZE + 37);
+        try (SpiffsImage image = SpiffsImage.open(write(data), PACKET_SIZE)) {
+            assertEquals(data.length, image.getSize());
+            assertEquals(2001, image.getPacketCount());
+            for (int i = 0; i < image.getPacketCount(); i++) {
+                assertPacket(data, image, i);
+            }
+            // asked for again from before the buffer, and then past it
+            assertPacket(data, image, 3);
+            assertPacket(data, image, 1500);
+            assertPacket(data, image, 2000);
+        }
+    }
+
+    @Test
+    void encodesSpiffsFrames() throws Exception {
+        final byte[] data = data(3 * PACKET_SIZE - 10);
+        try (SpiffsImage image = SpiffsImage.open(write(data), PACKET_SIZE)) {
+            final byte[] frame = new byte[HEADER_SIZE + PACKET_SIZE + 4];
+            final int length = OtaTransfer.encodePacket(image, BT_PACKET_SPIFFS_MSG, 2, frame);
+            final int payload = PACKET_SIZE - 10;
+            assertEquals(HEADER_SIZE + payload + 4, length);
+            assertEquals(BT_PACKET_SPIFFS_MSG, readShortLE(frame, 0));
+            assertEquals(payload + 4, readShortLE(frame, 2));
+            assertEquals(2, readShortLE(frame, HEADER_SIZE));
+            assertArrayEquals(Arrays.copyOfRange(data, 2 * PACKET_SIZE, data.length), Arrays.copyOfRange(frame, HEADER_SIZE + 2, HEADER_SIZE + 2 + payload));
+            assertEquals(checksum(data, 2 * PACKET_SIZE, payload), (short) readShortLE(frame, HEADER_SIZE + 2 + payload));
+        }
+    }
+
+    @Test
+    void aFileThatShrinksFailsTheRead() throws Exception {
+        final Path file = write(data(1000 * PACKET_SIZE));
+        try (SpiffsImage image = SpiffsImage.open(file, PACKET_SIZE)) {
+            assertPacket(Files.readAllBytes(file), image, 0);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(10 * PACKET_SIZE);
+            }
+            assertThrows(UncheckedIOException.class, () -> image.copyPacket(999, new byte[PACKET_SIZE], 0));
+        }
+    }
+
+    @Test
+    void rejectsImagesThatCantBeAddressed() throws Exception {
+        final Path file = write(new byte[(1 << 16) + 1]);
+        assertThrows(IllegalArgumentException.class, () -> SpiffsImage.open(file, 1));
+        assertThrows(IllegalArgumentException.class, () -> SpiffsImage.open(file, 0));
+        try (SpiffsImage image = SpiffsImage.open(file, 2)) {
+            assertEquals((1 << 15) + 1, image.getPacketCount());
+        }
+    }
+
+    @Test
+    void pacedByADeviceThatAsks() throws Exception {
+        assertTrue(upload(new VirtualBuzzerDevice("spiffs-paced"), true));
+    }
+
+    @Test
+    void streamedToFirmwareThatDoesntAsk() throws Exception {
+        final VirtualBuzzerDevice device = new VirtualBuzzerDevice("spiffs-stream");
+        device.setConfig(BuzzerEngine.CONFIG_CAPABILITIES, "");
+        assertFalse(upload(device, false));
+    }
+
+    // uploads to the device once its config has been read, returning whether it was told it could ask
+    private boolean upload(VirtualBuzzerDevice device, boolean paced) throws Exception {
+        final byte[] data = data(300 * PACKET_SIZE + 11);
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch complete = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final BuzzerEngine engine = new BuzzerEngine(null);
+        engine.setConfigCache(null);
+        engine.setOtaProgressDirectory(null);
+        engine.addListener(new BuzzerEngine.Listener() {
+            @Override
+            public void configRead(Map<String, String> config) {
+                if (config.containsKey(BuzzerEngine.CONFIG_VERSION)) {
+                    read.countDown();
+                }
+            }
+
+            @Override
+            public void spiffsComplete(int bytes, long elapsedNanos, long bytesPerSecond) {
+                complete.countDown();
+            }
+
+            @Override
+            public void spiffsFailed(Exception ex) {
+                failure.set(ex);
+                complete.countDown();
+            }
+        });
+        device.setEventRate(0);
+        try {
+            assertTrue(engine.connect(device));
+            assertTrue(read.await(5, TimeUnit.SECONDS), "config wasn't read");
+            final boolean asks = engine.hasCapability(BuzzerEngine.CAPABILITY_SPIFFS_REQ);
+            assertEquals(paced, asks);
+
+            assertEquals(301, engine.startSpiffsUpload(write(data)));
+            assertTrue(complete.await(20, TimeUnit.SECONDS), "upload didn't finish");
+            assertNull(failure.get());
+            // END goes out just before complete is called, give the device a moment to take it
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (device.getSpiffsImage() == null && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertArrayEquals(data, device.getSpiffsImage());
+            return asks;
+        } finally {
+            engine.disconnect();
+        }
+    }
+}
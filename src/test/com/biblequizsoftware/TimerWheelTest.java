@@ -0,0 +1,61 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+    // a small wheel so the longer delays take several turns
+    private final TimerWheel wheel = new TimerWheel("test-timer", TimeUnit.MILLISECONDS.toNanos(5), 16);
+
+    @Test
+    void neverFiresEarly() throws InterruptedException {
+        final long[] delays = {0, 1, 7, 30, 79, 80, 81, 200, 410};
+        final AtomicLongArray firedAt = new AtomicLongArray(delays.length);
+        final CountDownLatch fired = new CountDownLatch(delays.length);
+        final long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            final int index = i;
+            wheel.schedule(() -> {
+                firedAt.set(index, System.nanoTime());
+                fired.countDown();
+            }, delays[i], TimeUnit.MILLISECONDS);
+        }
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(firedAt.get(i) - start >= TimeUnit.MILLISECONDS.toNanos(delays[i]), "fired early, delay " + delays[i]);
+        }
+    }
+
+    @Test
+    void cancelledNeverRun() throws InterruptedException {
+        final AtomicInteger ran = new AtomicInteger();
+        final TimerWheel.Timeout near = wheel.schedule(ran::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        final TimerWheel.Timeout far = wheel.schedule(ran::incrementAndGet, 150, TimeUnit.MILLISECONDS);
+        final CountDownLatch after = new CountDownLatch(1);
+        wheel.schedule(after::countDown, 300, TimeUnit.MILLISECONDS);
+
+        assertTrue(near.cancel());
+        assertTrue(far.cancel());
+        assertFalse(near.isPending());
+        assertFalse(near.cancel());
+
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertEquals(0, ran.get());
+    }
+
+    @Test
+    void expiredCanNoLongerBeCancelled() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final TimerWheel.Timeout timeout = wheel.schedule(ran::countDown, 10, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.isPending());
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.isPending());
+        assertFalse(timeout.cancel());
+    }
+}
@@ -0,0 +1,145 @@
+package com.biblequizsoftware;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.biblequizsoftware.BuzzerProtocol.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireJournalTest {
+    private static final int SEGMENT_SIZE = 128 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] payload(int i) {
+        final byte[] payload = new byte[200];
+        putIntLE(payload, 0, i);
+        return payload;
+    }
+
+    private List<WireJournal.Record> readAll() throws Exception {
+        final List<WireJournal.Record> records = new ArrayList<>();
+        for (Path segment : WireJournal.segments(directory)) {
+            WireJournal.read(segment, records::add);
+        }
+        return records;
+    }
+
+    private void awaitSegments(int count) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (WireJournal.segments(directory).size() != count) {
+            assertTrue(System.nanoTime() < deadline, "never got to " + count + " segments");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void readsBackAcrossSegments() throws Exception {
+        final WireJournal journal = new WireJournal(directory, "COM3", SEGMENT_SIZE, 0);
+        for (int i = 0; i < 2000; i++) {
+            journal.record(i % 2 == 0 ? WireJournal.IN : WireJournal.OUT, 1000 + i, BT_PACKET_LOG, payload(i), 0, 200);
+        }
+        assertEquals(2000, journal.getRecords());
+        journal.close();
+
+        final List<Path> segments = WireJournal.segments(directory);
+        assertTrue(segments.size() >= 4, segments.size() + " segments");
+        // each trimmed to what was written, and no unused spare left behind
+        for (Path segment : segments) {
+            assertTrue(Files.size(segment) < SEGMENT_SIZE);
+            assertEquals("COM3", WireJournal.header(segment).device());
+        }
+        final List<WireJournal.Record> records = readAll();
+        assertEquals(2000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            final WireJournal.Record record = records.get(i);
+            assertEquals(i % 2 == 0 ? WireJournal.IN : WireJournal.OUT, record.direction());
+            assertEquals(1000 + i, record.hostNanos());
+            assertEquals(BT_PACKET_LOG, record.type());
+            assertEquals(i, readIntLE(record.payload(), 0));
+        }
+    }
+
+    @Test
+    void theNextSegmentIsReadyBeforeItsNeeded() throws Exception {
+        final WireJournal journal = new WireJournal(directory, "COM3", SEGMENT_SIZE, 0);
+        // the spare is a valid, empty segment
+        awaitSegments(2);
+        final Path spare = WireJournal.segments(directory).get(1);
+        assertEquals("COM3", WireJournal.header(spare).device());
+        assertTrue(readAll().isEmpty());
+
+        // just over a segment's worth
+        final int count = SEGMENT_SIZE / 213 + 10;
+        for (int i = 0; i < count; i++) {
+            journal.record(WireJournal.IN, i, BT_PACKET_CMD, payload(i), 0, 200);
+        }
+        final List<WireJournal.Record> inSpare = new ArrayList<>();
+        WireJournal.read(spare, inSpare::add);
+        assertFalse(inSpare.isEmpty(), "didn't move on to the spare");
+        journal.close();
+        assertEquals(count, readAll().size());
+    }
+
+    @Test
+    void keepsTheNewestSegmentsOfTheDevice() throws Exception {
+        // an earlier session of the same device and another device
+        final WireJournal earlier = new WireJournal(directory, "COM3", SEGMENT_SIZE, 0);
+        earlier.record(WireJournal.IN, 1, BT_PACKET_CMD, payload(0), 0, 200);
+        earlier.close();
+        final WireJournal other = new WireJournal(directory, "COM4", SEGMENT_SIZE, 0);
+        other.record(WireJournal.IN, 1, BT_PACKET_CMD, payload(0), 0, 200);
+        other.close();
+        Thread.sleep(2);
+
+        final WireJournal journal = new WireJournal(directory, "COM3", SEGMENT_SIZE, 3);
+        for (int i = 0; i < 5000; i++) {
+            journal.record(WireJournal.OUT, i, BT_PACKET_LOG, payload(i), 0, 200);
+        }
+        journal.close();
+
+        final List<WireJournal.Record> records = new ArrayList<>();
+        int com4 = 0;
+        for (Path segment : WireJournal.segments(directory)) {
+            if (WireJournal.header(segment).device().equals("COM3")) {
+                WireJournal.read(segment, records::add);
+            } else {
+                com4++;
+            }
+        }
+        assertEquals(1, com4);
+        // the earlier session's went first, then this one's oldest
+        assertEquals(3, WireJournal.segments(directory).size() - com4);
+        assertEquals(4999, readIntLE(records.get(records.size() - 1).payload(), 0));
+        assertTrue(readIntLE(records.get(0).payload(), 0) > 0);
+    }
+
+    @Test
+    void splitsARunOfFrames() throws Exception {
+        final byte[] first = frame(BT_PACKET_CMD, new byte[] {'R', '1'});
+        final byte[] second = frame(BT_PACKET_PING, new byte[0]);
+        final byte[] run = new byte[first.length + second.length];
+        System.arraycopy(first, 0, run, 0, first.length);
+        System.arraycopy(second, 0, run, first.length, second.length);
+
+        final WireJournal journal = new WireJournal(directory, "COM3", SEGMENT_SIZE, 0);
+        journal.recordFrames(WireJournal.OUT, 42, run, 0, run.length);
+        journal.close();
+        // closed, nothing more goes in
+        journal.recordFrames(WireJournal.OUT, 43, run, 0, run.length);
+
+        final List<WireJournal.Record> records = readAll();
+        assertEquals(2, records.size());
+        assertEquals(BT_PACKET_CMD, records.get(0).type());
+        assertArrayEquals(new byte[] {'R', '1'}, records.get(0).payload());
+        assertEquals(BT_PACKET_PING, records.get(1).type());
+        assertEquals(42, records.get(1).hostNanos());
+    }
+}